@@ -0,0 +1,557 @@
+package com.sourcegraph.langp;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.gson.stream.JsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Writes language server configurations of workspace modules.
+ * <p>
+ * In standalone format each module's configuration lists absolute paths of its source roots and classpath entries.
+ * In pooled format paths are stored once in workspace index file, module configuration refers to them by ID and
+ * to its classpath by ID of classpath shared by all the modules that have the same one:
+ * <pre>
+ * .jls-index  {"version": 2, "entries": ["/a/src", "/b.jar", ...], "classPaths": [[1, 2], ...],
+ *              "configurations": ["a/.jls-config", ...]}
+ * .jls-config {"index": "../.jls-index", "sources": [0], "classPath": 0, "outputDirectory": "/a/target"}
+ * </pre>
+ * Pooled configurations are kept until {@link #flush()}. Paths are interned, collectors intern paths they keep
+ * with {@link #intern(String)} too, so that modules of workspace share path instances in either format.
+ * Files are replaced atomically and only if their content changes. Safe for concurrent use
+ */
+class ConfigurationWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigurationWriter.class);
+
+    static final String FORMAT_STANDALONE = "standalone";
+    static final String FORMAT_POOLED = "pooled";
+
+    static final String CONFIGURATION_FILE = ".jls-config";
+    static final String INDEX_FILE = ".jls-index";
+
+    /**
+     * Increment when index file format changes
+     */
+    private static final int INDEX_VERSION = 2;
+
+    private Path root;
+
+    private boolean pooled;
+
+    private boolean pretty;
+
+    private boolean incremental;
+
+    private Interner<String> paths = Interners.newStrongInterner();
+
+    /**
+     * configuration file -> configuration, pooled format only
+     */
+    private Map<Path, LanguageServerConfiguration> pending = new HashMap<>();
+
+    /**
+     * @param root        workspace root
+     * @param format      output format
+     * @param pretty      pretty print JSON (debug mode)
+     * @param incremental only some of the workspace modules will be written, pooled format keeps existing index
+     *                    entries
+     */
+    ConfigurationWriter(Path root, String format, boolean pretty, boolean incremental) {
+        if (!FORMAT_STANDALONE.equals(format) && !FORMAT_POOLED.equals(format)) {
+            throw new IllegalArgumentException("Unknown configuration format " + format);
+        }
+        this.root = root;
+        this.pooled = FORMAT_POOLED.equals(format);
+        this.pretty = pretty;
+        this.incremental = incremental;
+    }
+
+    /**
+     * @param path path (may be null)
+     * @return canonical instance of path
+     */
+    String intern(String path) {
+        return path == null ? null : paths.intern(path);
+    }
+
+    /**
+     * @param values paths
+     * @return canonical instances of paths
+     */
+    List<String> intern(Collection<String> values) {
+        return values.stream().
+                map(this::intern).
+                collect(Collectors.toCollection(LinkedList::new));
+    }
+
+    /**
+     * Writes module's configuration (pooled format defers writing until {@link #flush()})
+     *
+     * @param directory     module directory
+     * @param configuration module's configuration, paths may be relative to workspace root
+     */
+    void write(Path directory, LanguageServerConfiguration configuration) {
+        Path target = directory.resolve(CONFIGURATION_FILE).toAbsolutePath().normalize();
+        if (configuration.sources != null) {
+            configuration.sources = normalize(configuration.sources);
+        }
+        if (configuration.classPath != null) {
+            configuration.classPath = normalize(configuration.classPath);
+        }
+        if (configuration.outputDirectory != null) {
+            configuration.outputDirectory = root.resolve(configuration.outputDirectory).toString();
+        }
+        if (!pooled) {
+            try {
+                writeFile(target, toJson(configuration));
+            } catch (IOException e) {
+                LOGGER.warn("Failed to save configuration", e);
+            }
+            return;
+        }
+        synchronized (this) {
+            pending.put(target, configuration);
+        }
+    }
+
+    /**
+     * Writes workspace index and pending configurations of pooled format. Entry IDs are assigned in configuration
+     * files order, so that unchanged workspace produces the same files. Incremental run appends new entries to
+     * existing index, so that configurations that are not written again stay valid. Once most of the entries are
+     * no longer referred by any configuration, index is compacted: configurations that are not written again are
+     * loaded from disk and written together with the pending ones, as full run does
+     */
+    synchronized void flush() {
+        if (!pooled || pending.isEmpty()) {
+            return;
+        }
+        Path indexFile = root.resolve(INDEX_FILE).toAbsolutePath().normalize();
+        Index index = null;
+        if (incremental) {
+            // IDs referred by configurations that are not written again should stay valid
+            Index previous = readIndex(indexFile);
+            if (previous != null) {
+                Map<Path, PooledConfiguration> kept = readConfigurations(previous, indexFile);
+                if (isSparse(previous, kept.values())) {
+                    LOGGER.info("Compacting {}", indexFile);
+                    kept.forEach((file, configuration) -> pending.put(file, toConfiguration(configuration, previous)));
+                } else {
+                    index = previous;
+                    index.configurations.removeIf(file -> !kept.containsKey(root.resolve(file)));
+                }
+            }
+        }
+        if (index == null) {
+            index = new Index();
+        }
+        Map<String, Integer> entryIds = new HashMap<>();
+        for (String entry : index.entries) {
+            entryIds.putIfAbsent(entry, entryIds.size());
+        }
+        Map<List<Integer>, Integer> classPathIds = new HashMap<>();
+        for (List<Integer> classPath : index.classPaths) {
+            classPathIds.putIfAbsent(classPath, classPathIds.size());
+        }
+
+        Map<Path, PooledConfiguration> configurations = new TreeMap<>();
+        for (Map.Entry<Path, LanguageServerConfiguration> entry : new TreeMap<>(pending).entrySet()) {
+            LanguageServerConfiguration configuration = entry.getValue();
+            PooledConfiguration pooledConfiguration = new PooledConfiguration();
+            pooledConfiguration.index = entry.getKey().getParent().relativize(indexFile).toString();
+            if (configuration.sources != null) {
+                pooledConfiguration.sources = toIds(configuration.sources, index, entryIds);
+            }
+            if (configuration.classPath != null) {
+                List<Integer> classPath = toIds(configuration.classPath, index, entryIds);
+                Integer id = classPathIds.get(classPath);
+                if (id == null) {
+                    id = index.classPaths.size();
+                    index.classPaths.add(classPath);
+                    classPathIds.put(classPath, id);
+                }
+                pooledConfiguration.classPath = id;
+            }
+            pooledConfiguration.outputDirectory = configuration.outputDirectory;
+            configurations.put(entry.getKey(), pooledConfiguration);
+        }
+        pending.clear();
+        Set<String> files = new TreeSet<>(index.configurations);
+        for (Path file : configurations.keySet()) {
+            files.add(root.relativize(file).toString());
+        }
+        index.configurations = new ArrayList<>(files);
+        LOGGER.info("Pooled {} path(s) and {} classpath(s) of {} configuration(s)",
+                index.entries.size(),
+                index.classPaths.size(),
+                configurations.size());
+
+        try {
+            // index goes first, configurations refer to its entries
+            writeFile(indexFile, toJson(index));
+            for (Map.Entry<Path, PooledConfiguration> entry : configurations.entrySet()) {
+                writeFile(entry.getKey(), toJson(entry.getValue()));
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to save configuration", e);
+        }
+    }
+
+    /**
+     * @param values paths, may be relative to workspace root
+     * @return absolute normalized interned paths
+     */
+    private List<String> normalize(Collection<String> values) {
+        return values.stream().
+                map(s -> paths.intern(root.resolve(s).toAbsolutePath().normalize().toString())).
+                collect(Collectors.toList());
+    }
+
+    /**
+     * @param values   paths
+     * @param index    workspace index to add new entries to
+     * @param entryIds map of entry -> ID
+     * @return IDs of paths
+     */
+    private static List<Integer> toIds(Collection<String> values, Index index, Map<String, Integer> entryIds) {
+        List<Integer> ret = new ArrayList<>(values.size());
+        for (String value : values) {
+            Integer id = entryIds.get(value);
+            if (id == null) {
+                id = index.entries.size();
+                index.entries.add(value);
+                entryIds.put(value, id);
+            }
+            ret.add(id);
+        }
+        return ret;
+    }
+
+    /**
+     * @param index     workspace index
+     * @param indexFile index file
+     * @return configuration file -> configuration of index's configurations that are not pending, still exist and
+     * refer to the given index by valid IDs
+     */
+    private Map<Path, PooledConfiguration> readConfigurations(Index index, Path indexFile) {
+        Map<Path, PooledConfiguration> ret = new HashMap<>();
+        for (String name : index.configurations) {
+            Path file = root.resolve(name).toAbsolutePath().normalize();
+            if (pending.containsKey(file) || !Files.isRegularFile(file)) {
+                continue;
+            }
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                PooledConfiguration configuration = JSONUtil.read(reader, PooledConfiguration.class);
+                if (configuration != null &&
+                        configuration.index != null &&
+                        file.getParent().resolve(configuration.index).normalize().equals(indexFile) &&
+                        isValid(configuration, index)) {
+                    ret.put(file, configuration);
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Unable to read {}", file, e);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @param configuration pooled configuration
+     * @param index         workspace index
+     * @return true if configuration refers to existing entries and classpath of index
+     */
+    private static boolean isValid(PooledConfiguration configuration, Index index) {
+        if (configuration.sources != null && configuration.sources.stream().
+                anyMatch(id -> id == null || id < 0 || id >= index.entries.size())) {
+            return false;
+        }
+        return configuration.classPath == null ||
+                (configuration.classPath >= 0 && configuration.classPath < index.classPaths.size());
+    }
+
+    /**
+     * @param index workspace index
+     * @param kept  configurations that refer to index and are not written again
+     * @return true if less than half of index entries or classpaths are referred by configurations that are
+     * not written again, configurations being written may refer to the rest but usually bring new classpaths
+     */
+    private static boolean isSparse(Index index, Collection<PooledConfiguration> kept) {
+        Set<Integer> classPaths = new HashSet<>();
+        Set<Integer> entries = new HashSet<>();
+        for (PooledConfiguration configuration : kept) {
+            if (configuration.sources != null) {
+                entries.addAll(configuration.sources);
+            }
+            if (configuration.classPath != null && classPaths.add(configuration.classPath)) {
+                entries.addAll(index.classPaths.get(configuration.classPath));
+            }
+        }
+        return entries.size() * 2 < index.entries.size() || classPaths.size() * 2 < index.classPaths.size();
+    }
+
+    /**
+     * @param configuration pooled configuration
+     * @param index         workspace index configuration refers to
+     * @return configuration with IDs replaced by paths
+     */
+    private LanguageServerConfiguration toConfiguration(PooledConfiguration configuration, Index index) {
+        LanguageServerConfiguration ret = new LanguageServerConfiguration();
+        if (configuration.sources != null) {
+            ret.sources = configuration.sources.stream().
+                    map(id -> intern(index.entries.get(id))).
+                    collect(Collectors.toList());
+        }
+        if (configuration.classPath != null) {
+            ret.classPath = index.classPaths.get(configuration.classPath).stream().
+                    map(id -> intern(index.entries.get(id))).
+                    collect(Collectors.toList());
+        }
+        ret.outputDirectory = configuration.outputDirectory;
+        return ret;
+    }
+
+    /**
+     * @param file index file
+     * @return existing workspace index or null if it does not exist or cannot be used
+     */
+    private static Index readIndex(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Index ret = JSONUtil.read(reader, Index.class);
+            if (ret == null ||
+                    ret.version != INDEX_VERSION ||
+                    ret.entries == null ||
+                    ret.classPaths == null ||
+                    ret.configurations == null) {
+                return null;
+            }
+            return ret;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Unable to read {}, writing new index", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Serializes standalone configuration
+     *
+     * @param configuration configuration
+     * @return UTF-8 encoded JSON
+     * @throws IOException
+     */
+    private byte[] toJson(LanguageServerConfiguration configuration) throws IOException {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        try (JsonWriter writer = newJsonWriter(ret)) {
+            writer.beginObject();
+            writeStrings(writer, "sources", configuration.sources);
+            writeStrings(writer, "classPath", configuration.classPath);
+            if (configuration.outputDirectory != null) {
+                writer.name("outputDirectory").value(configuration.outputDirectory);
+            }
+            writer.endObject();
+        }
+        return ret.toByteArray();
+    }
+
+    /**
+     * Serializes pooled configuration
+     *
+     * @param configuration configuration
+     * @return UTF-8 encoded JSON
+     * @throws IOException
+     */
+    private byte[] toJson(PooledConfiguration configuration) throws IOException {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        try (JsonWriter writer = newJsonWriter(ret)) {
+            writer.beginObject();
+            writer.name("index").value(configuration.index);
+            writeIds(writer, "sources", configuration.sources);
+            if (configuration.classPath != null) {
+                writer.name("classPath").value(configuration.classPath);
+            }
+            if (configuration.outputDirectory != null) {
+                writer.name("outputDirectory").value(configuration.outputDirectory);
+            }
+            writer.endObject();
+        }
+        return ret.toByteArray();
+    }
+
+    /**
+     * Serializes workspace index
+     *
+     * @param index workspace index
+     * @return UTF-8 encoded JSON
+     * @throws IOException
+     */
+    private byte[] toJson(Index index) throws IOException {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        try (JsonWriter writer = newJsonWriter(ret)) {
+            writer.beginObject();
+            writer.name("version").value(index.version);
+            writeStrings(writer, "entries", index.entries);
+            writer.name("classPaths").beginArray();
+            for (List<Integer> classPath : index.classPaths) {
+                writeIds(writer, null, classPath);
+            }
+            writer.endArray();
+            writeStrings(writer, "configurations", index.configurations);
+            writer.endObject();
+        }
+        return ret.toByteArray();
+    }
+
+    /**
+     * @param out target stream
+     * @return JSON writer that produces compact or pretty printed UTF-8 encoded JSON
+     */
+    private JsonWriter newJsonWriter(ByteArrayOutputStream out) {
+        JsonWriter ret = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        if (pretty) {
+            ret.setIndent("  ");
+        }
+        return ret;
+    }
+
+    /**
+     * Writes array of strings, null collections are skipped
+     *
+     * @param writer JSON writer
+     * @param name   property name
+     * @param values values to write
+     * @throws IOException
+     */
+    private static void writeStrings(JsonWriter writer, String name, Collection<String> values) throws IOException {
+        if (values == null) {
+            return;
+        }
+        writer.name(name).beginArray();
+        for (String value : values) {
+            writer.value(value);
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Writes array of IDs, null collections are skipped
+     *
+     * @param writer JSON writer
+     * @param name   property name, null if array is an element of enclosing array
+     * @param values values to write
+     * @throws IOException
+     */
+    private static void writeIds(JsonWriter writer, String name, Collection<Integer> values) throws IOException {
+        if (values == null) {
+            return;
+        }
+        if (name != null) {
+            writer.name(name);
+        }
+        writer.beginArray();
+        for (Integer value : values) {
+            writer.value(value);
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Writes file unless it already has the same content, so that language server does not reload configuration
+     * for nothing. Otherwise new content goes to temporary file which replaces target one, readers never see
+     * partially written file
+     *
+     * @param target  file to write
+     * @param content file content
+     * @throws IOException
+     */
+    private static void writeFile(Path target, byte[] content) throws IOException {
+        if (Files.isRegularFile(target) &&
+                Files.size(target) == content.length &&
+                Arrays.equals(Files.readAllBytes(target), content)) {
+            LOGGER.info("{} is up to date", target);
+            return;
+        }
+        Path temp = createTempFile(target);
+        try {
+            Files.write(temp, content);
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            LOGGER.info("Wrote {}", target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Creates temporary file next to target one. Unlike {@link Files#createTempFile}, which makes file readable by
+     * owner only, file gets target's permissions or default ones if there is no target yet, so that replaced file
+     * stays readable by language server running as another user
+     *
+     * @param target file to be replaced
+     * @return new empty file
+     * @throws IOException
+     */
+    private static Path createTempFile(Path target) throws IOException {
+        Path temp;
+        while (true) {
+            try {
+                temp = Files.createFile(target.resolveSibling(target.getFileName().toString() + '.' +
+                        Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp"));
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // name is taken, trying another one
+            }
+        }
+        if (Files.exists(target) && Files.getFileStore(temp).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            try {
+                Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+            } catch (IOException e) {
+                LOGGER.debug("Unable to copy permissions of {}", target, e);
+            }
+        }
+        return temp;
+    }
+
+    /**
+     * Module's configuration in pooled format
+     */
+    private static class PooledConfiguration {
+        String index;
+        List<Integer> sources;
+        Integer classPath;
+        String outputDirectory;
+    }
+
+    /**
+     * Workspace index of pooled format
+     */
+    private static class Index {
+        int version = INDEX_VERSION;
+        List<String> entries = new ArrayList<>();
+        List<List<Integer>> classPaths = new ArrayList<>();
+        /**
+         * Configuration files that refer to index, relative to workspace root
+         */
+        List<String> configurations = new ArrayList<>();
+    }
+}
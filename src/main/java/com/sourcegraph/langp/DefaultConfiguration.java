@@ -3,24 +3,20 @@ package com.sourcegraph.langp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 class DefaultConfiguration {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultConfiguration.class);
 
-    static boolean prepare(Path path) {
+    static boolean prepare(Path path, WorkspaceIndex index, ConfigurationWriter writer) {
         LOGGER.info("Scanning for Java sources in {}", path);
         // reading all the java directories in workspace
-        Set<String> directories = getSourceDirs(path);
+        Set<String> directories = getSourceDirs(index);
         // if we found no directories, let's try to add root one
         if (directories.isEmpty()) {
             directories.add(path.toAbsolutePath().normalize().toString());
@@ -28,33 +24,20 @@ class DefaultConfiguration {
         LanguageServerConfiguration configuration = new LanguageServerConfiguration();
         configuration.classPath = new LinkedList<>();
         configuration.sources = directories;
-        configuration.write(path, path.resolve(".jls-config"));
+        writer.write(path, configuration);
 
         return true;
     }
 
     /**
-     * @param path workspace root
+     * @param index workspace index
      * @return all "java" directories found
      */
-    private static Set<String> getSourceDirs(Path path) {
-        Set<String> dirs = new HashSet<>();
-        try {
-
-            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                    if (dir.getFileName().toString().equals("java")) {
-                        dirs.add(dir.toString());
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-            });
-        } catch (IOException e) {
-            LOGGER.warn("Unable to collect java directories", e);
-        }
-        return dirs;
+    private static Set<String> getSourceDirs(WorkspaceIndex index) {
+        return index.getJavaDirectories().
+                stream().
+                map(Path::toString).
+                collect(Collectors.toCollection(HashSet::new));
     }
 
-
 }
\ No newline at end of file
@@ -0,0 +1,227 @@
+package com.sourcegraph.langp;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.SystemUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Groups Gradle build files by build roots. Single Gradle run in build root configures all the projects
+ * that belong to the build, so there is no need to run Gradle for each of them
+ */
+class GradleBuildRoots {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GradleBuildRoots.class);
+
+    /**
+     * Matches string literals (first group) and comments in Gradle settings script, so that comment markers inside
+     * literals are skipped
+     */
+    private static final Pattern COMMENT = Pattern.compile(
+            "('(?:[^'\\\\\\n]|\\\\.)*'|\"(?:[^\"\\\\\\n]|\\\\.)*\")|//[^\\n]*|/\\*.*?\\*/",
+            Pattern.DOTALL);
+
+    /**
+     * Matches include 'a', ':b:c' and includeFlat 'd' declarations, first group is a keyword, second group is
+     * everything that follows it up to the end of line (lines ending with comma or parenthesis are continued)
+     */
+    private static final Pattern INCLUDE = Pattern.compile("\\b(include|includeFlat)\\b((?:[^\\n]*[,(]\\s*\\n)*[^\\n]*)");
+
+    /**
+     * Matches string literal
+     */
+    private static final Pattern LITERAL = Pattern.compile("'([^'$]*)'|\"([^\"$]*)\"");
+
+    /**
+     * Matches declaration arguments that are string literals only
+     */
+    private static final Pattern LITERALS = Pattern.compile("\\s*\\(?\\s*(('[^'$]*'|\"[^\"$]*\")\\s*,?\\s*)+\\)?\\s*;?\\s*");
+
+    private GradleBuildRoots() {
+    }
+
+    /**
+     * Groups Gradle build files by build roots
+     *
+     * @param index       workspace index
+     * @param descriptors Gradle build files
+     * @return map (build root's file to run Gradle with -> build files that belong to build root), build roots are
+     * ordered by the first build file that belongs to them
+     */
+    static Map<Path, Collection<Path>> getBuildRoots(WorkspaceIndex index, Collection<Path> descriptors) {
+        Map<Path, Settings> settings = new HashMap<>();
+        // project directory -> settings directory, for projects included with includeFlat
+        Map<Path, Path> flatProjects = new HashMap<>();
+        for (Path file : index.getGradleSettings()) {
+            Path directory = file.toAbsolutePath().normalize().getParent();
+            Settings current = parseSettings(file, directory);
+            settings.put(directory, current);
+            for (Path projectDir : current.flatProjectDirs) {
+                flatProjects.putIfAbsent(projectDir, directory);
+            }
+        }
+
+        String wrapper = SystemUtils.IS_OS_WINDOWS ? WorkspaceIndex.GRADLE_WRAPPER_WINDOWS :
+                WorkspaceIndex.GRADLE_WRAPPER;
+        Set<Path> wrappers = new HashSet<>();
+        for (Path file : index.getGradleWrappers()) {
+            if (file.getFileName().toString().equals(wrapper)) {
+                wrappers.add(file.toAbsolutePath().normalize().getParent());
+            }
+        }
+
+        Set<Path> buildFiles = new HashSet<>();
+        for (Path file : index.getGradleDescriptors()) {
+            buildFiles.add(file.toAbsolutePath().normalize());
+        }
+
+        Map<Path, Collection<Path>> ret = new LinkedHashMap<>();
+        for (Path descriptor : descriptors) {
+            descriptor = descriptor.toAbsolutePath().normalize();
+            Path root = getBuildRoot(descriptor.getParent(), settings, flatProjects, wrappers);
+            Path rootDescriptor;
+            if (root == null) {
+                rootDescriptor = descriptor;
+            } else {
+                rootDescriptor = root.resolve(WorkspaceIndex.GRADLE_DESCRIPTOR);
+                if (!buildFiles.contains(rootDescriptor)) {
+                    rootDescriptor = root.resolve(WorkspaceIndex.GRADLE_SETTINGS);
+                }
+            }
+            ret.computeIfAbsent(rootDescriptor, k -> new LinkedHashSet<>()).add(descriptor);
+        }
+        return ret;
+    }
+
+    /**
+     * @param directory    build file's directory
+     * @param settings     known settings, keyed by directory
+     * @param flatProjects project directory -> directory of settings file that includes it with includeFlat
+     * @param wrappers     directories that contain Gradle wrapper
+     * @return directory of the nearest settings file that includes given directory or null if directory does not
+     * belong to multi-project build
+     */
+    private static Path getBuildRoot(Path directory,
+                                     Map<Path, Settings> settings,
+                                     Map<Path, Path> flatProjects,
+                                     Set<Path> wrappers) {
+        // flat projects are siblings of settings directory, which is not among their ancestors
+        Path flatRoot = flatProjects.get(directory);
+        if (flatRoot != null && !settings.containsKey(directory)) {
+            return flatRoot;
+        }
+        Path current = directory;
+        boolean standalone = false;
+        while (current != null) {
+            Settings candidate = settings.get(current);
+            if (candidate != null) {
+                if (candidate.projectDirs.contains(directory)) {
+                    return current;
+                }
+                if (candidate.dynamic && !standalone && directory.startsWith(current)) {
+                    return current;
+                }
+                // nearest settings file decides, Gradle does not look any further
+                return null;
+            }
+            // own wrapper denotes separate build unless directory is listed explicitly
+            standalone |= wrappers.contains(current);
+            current = current.getParent();
+        }
+        return null;
+    }
+
+    /**
+     * Extracts project directories from settings file
+     *
+     * @param file      settings file
+     * @param directory settings file's directory
+     * @return settings, if project list or locations cannot be determined statically, all the build files
+     * under settings directory are considered to be build members
+     */
+    private static Settings parseSettings(Path file, Path directory) {
+        Settings ret = new Settings();
+        ret.projectDirs.add(directory);
+        String content;
+        try {
+            content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read {}", file, e);
+            ret.dynamic = true;
+            return ret;
+        }
+        content = stripComments(content);
+        // custom project locations
+        ret.dynamic = content.contains("projectDir");
+        Matcher matcher = INCLUDE.matcher(content);
+        while (matcher.find()) {
+            String arguments = matcher.group(2);
+            if (!LITERALS.matcher(arguments).matches()) {
+                ret.dynamic = true;
+                continue;
+            }
+            boolean flat = "includeFlat".equals(matcher.group(1));
+            Matcher literal = LITERAL.matcher(arguments);
+            while (literal.find()) {
+                String project = StringUtils.defaultString(literal.group(1), literal.group(2));
+                if (flat) {
+                    Path parent = directory.getParent();
+                    if (parent != null) {
+                        Path projectDir = parent.resolve(project).normalize();
+                        ret.projectDirs.add(projectDir);
+                        ret.flatProjectDirs.add(projectDir);
+                    }
+                    continue;
+                }
+                // "a:b:c" includes "a", "a:b" and "a:b:c"
+                Path current = directory;
+                for (String name : StringUtils.split(project, ':')) {
+                    current = current.resolve(name);
+                    ret.projectDirs.add(current.normalize());
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @param content Gradle settings script
+     * @return script without comments, string literals are kept as is
+     */
+    private static String stripComments(String content) {
+        Matcher matcher = COMMENT.matcher(content);
+        StringBuffer ret = new StringBuffer();
+        while (matcher.find()) {
+            String literal = matcher.group(1);
+            matcher.appendReplacement(ret, literal == null ? StringUtils.EMPTY : Matcher.quoteReplacement(literal));
+        }
+        matcher.appendTail(ret);
+        return ret.toString();
+    }
+
+    /**
+     * Statically known settings of multi-project build
+     */
+    private static class Settings {
+        /**
+         * Directories of projects that belong to build
+         */
+        Set<Path> projectDirs = new HashSet<>();
+        /**
+         * Directories of projects included with includeFlat
+         */
+        Set<Path> flatProjectDirs = new HashSet<>();
+        /**
+         * Set if settings file computes project list or locations
+         */
+        boolean dynamic;
+    }
+}
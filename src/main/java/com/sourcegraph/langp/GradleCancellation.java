@@ -0,0 +1,121 @@
+package com.sourcegraph.langp;
+
+import org.gradle.tooling.CancellationToken;
+import org.gradle.tooling.CancellationTokenSource;
+import org.gradle.tooling.GradleConnector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/**
+ * Stops Gradle builds. Interrupting thread that waits for Gradle is not enough, build keeps running in child process
+ * or in daemon, so Gradle processes are destroyed and Tooling API builds are cancelled through cancellation token.
+ * Cancellations form a tree, cancelling one cancels all its descendants. Safe for concurrent use
+ */
+class GradleCancellation {
+
+    /**
+     * Created on first use, so that Tooling API is not initialized when Gradle processes are used
+     */
+    private CancellationTokenSource tokenSource;
+
+    /**
+     * Running Gradle processes
+     */
+    private Collection<Process> processes = new HashSet<>();
+
+    private Collection<GradleCancellation> children = new LinkedList<>();
+
+    private boolean cancelled;
+
+    /**
+     * @return new cancellation that is cancelled together with this one
+     */
+    synchronized GradleCancellation newChild() {
+        GradleCancellation ret = new GradleCancellation();
+        if (cancelled) {
+            ret.cancel();
+        } else {
+            children.add(ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Forgets child that is no longer needed, so that long-living cancellation (watch and serve modes) does not keep
+     * children of all the past runs
+     *
+     * @param child child created by {@link #newChild()}
+     */
+    synchronized void remove(GradleCancellation child) {
+        children.remove(child);
+    }
+
+    /**
+     * @return token to pass to Tooling API builds
+     */
+    synchronized CancellationToken getToken() {
+        if (tokenSource == null) {
+            tokenSource = GradleConnector.newCancellationTokenSource();
+            if (cancelled) {
+                tokenSource.cancel();
+            }
+        }
+        return tokenSource.token();
+    }
+
+    /**
+     * Registers running Gradle process, process is destroyed right away if cancellation was requested already
+     *
+     * @param process Gradle process
+     * @return false if process was destroyed
+     */
+    synchronized boolean register(Process process) {
+        if (cancelled) {
+            process.destroy();
+            return false;
+        }
+        processes.add(process);
+        return true;
+    }
+
+    /**
+     * @param process finished Gradle process
+     */
+    synchronized void unregister(Process process) {
+        processes.remove(process);
+    }
+
+    /**
+     * @return true if cancellation was requested
+     */
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Destroys registered processes, cancels Tooling API builds and cancels descendants
+     */
+    void cancel() {
+        Collection<Process> running;
+        Collection<GradleCancellation> descendants;
+        CancellationTokenSource source;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            running = new ArrayList<>(processes);
+            descendants = new ArrayList<>(children);
+            source = tokenSource;
+        }
+        if (source != null) {
+            source.cancel();
+        }
+        // Gradle wrapper execs Java, destroying process stops Gradle client and daemon cancels the build
+        running.forEach(Process::destroy);
+        descendants.forEach(GradleCancellation::cancel);
+    }
+}
@@ -1,5 +1,8 @@
 package com.sourcegraph.langp;
 
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
@@ -7,10 +10,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 class GradleConfiguration {
@@ -24,79 +35,335 @@ class GradleConfiguration {
 
     private static final String DEFAULT_GROUP_ID = "default-group";
 
-    static boolean prepare(Path path) {
+    /**
+     * Prefix of warnings reported by init script
+     */
+    private static final String WARNING_PREFIX = "SRCLIB-WARNING ";
+
+    /**
+     * Number of last build output lines to keep for failure reports
+     */
+    private static final int OUTPUT_TAIL_LINES = 100;
+
+    /**
+     * Extracts project models through Gradle Tooling API
+     */
+    static final String BACKEND_TOOLING = "tooling";
+
+    /**
+     * Runs Gradle process with metadata extraction script and parses its output
+     */
+    static final String BACKEND_PROCESS = "process";
+
+    /**
+     * Expected memory footprint of single Gradle build, used to limit number of concurrent builds
+     */
+    private static final long GRADLE_PROCESS_MEMORY = 1024L * 1024 * 1024;
+
+    static boolean prepare(Path path,
+                           WorkspaceIndex index,
+                           WorkspaceCache cache,
+                           ConfigurationWriter writer,
+                           PrepareCommand options) {
         LOGGER.info("Scanning for Gradle project descriptors in {}", path);
-        Collection<Path> descriptors = getDescriptors(path);
+        Collection<Path> descriptors = getDescriptors(index);
 
-        Map<String, LanguageServerConfiguration> configurations = new HashMap<>();
-        Map<String, Project> projectsCache = new HashMap<>();
+        Map<String, Project> projectsCache = new LinkedHashMap<>();
+        // project ID -> IDs of projects it depends on
+        ModuleGraph<String> projectGraph = new ModuleGraph<>();
 
-        Set<Path> visited = new HashSet<>();
+        // build files located in the same directory, used to mark build files of reported projects as visited
+        Map<Path, Collection<Path>> directoryDescriptors = new HashMap<>();
         for (Path descriptor : descriptors) {
-
             descriptor = descriptor.toAbsolutePath().normalize();
+            directoryDescriptors.computeIfAbsent(descriptor.getParent(), k -> new LinkedList<>()).add(descriptor);
+        }
 
-            if (!visited.add(descriptor)) {
-                continue;
+        // Tooling API backend fetches project models from long-lived Gradle daemons
+        GradleToolingExtractor tooling = null;
+        if (BACKEND_TOOLING.equals(options.gradleBackend)) {
+            tooling = new GradleToolingExtractor(options.offline);
+        }
+        // meta information of build is extracted again only if its build scripts have changed
+        GradleMetadataCache metadataCache = new GradleMetadataCache(cache, TASK_CODE_RESOURCE);
+
+        // independent builds are extracted concurrently, results are merged in build roots order
+        Map<Path, Future<Map<String, Project>>> results = new LinkedHashMap<>();
+        // builds that are still running when results are no longer needed are stopped
+        GradleCancellation cancellation = options.cancellation.newChild();
+        Map<Path, GradleCancellation> cancellations = new HashMap<>();
+        // watch mode: builds not affected by changed files are loaded from meta information cache, so that
+        // projects of other builds still see them, only configurations of projects of affected or re-extracted
+        // builds and of projects depending on them are written again
+        Set<Path> affectedRoots = ConcurrentHashMap.newKeySet();
+        Set<String> changedProjects = new HashSet<>();
+        ExecutorService executor = options.pools.getGradlePool();
+        try {
+            for (Map.Entry<Path, Collection<Path>> buildRoot : GradleBuildRoots.getBuildRoots(index, descriptors).entrySet()) {
+                Path descriptor = buildRoot.getKey();
+                if (options.changedDescriptors == null || isAffected(descriptor, options.changedDescriptors)) {
+                    affectedRoots.add(descriptor);
+                }
+                GradleToolingExtractor extractor = tooling;
+                GradleCancellation buildCancellation = cancellation.newChild();
+                cancellations.put(descriptor, buildCancellation);
+                results.put(descriptor, executor.submit(() -> {
+                    String fingerprint;
+                    try {
+                        fingerprint = metadataCache.fingerprint(descriptor,
+                                buildRoot.getValue(),
+                                options.gradleBackend + ';' + options.offline + ';' + options.gradleMetadataOnly);
+                    } catch (IOException e) {
+                        // extracting meta information again, result is not cached
+                        LOGGER.warn("Unable to compute fingerprint of {}", descriptor, e);
+                        fingerprint = null;
+                    }
+                    List<Project> cached = fingerprint == null ? null : metadataCache.get(descriptor, fingerprint);
+                    if (cached != null) {
+                        LOGGER.info("Using cached meta information of {}", descriptor);
+                        intern(cached, writer);
+                        return toMap(cached);
+                    }
+                    LOGGER.info("Processing {} ({} build file(s))", descriptor, buildRoot.getValue().size());
+                    affectedRoots.add(descriptor);
+                    Map<String, Project> projects = processDescriptor(path,
+                            index,
+                            descriptor,
+                            options,
+                            extractor,
+                            buildCancellation);
+                    intern(projects.values(), writer);
+                    // failed builds are not cached
+                    if (fingerprint != null && !projects.isEmpty()) {
+                        metadataCache.put(descriptor, fingerprint, new ArrayList<>(projects.values()));
+                    }
+                    return projects;
+                }));
             }
-            LOGGER.info("Processing {}", descriptor);
-            Map<String, Project> projects = processDescriptor(path, descriptor, visited);
 
-            for (Project project : projects.values()) {
+            // Gradle is run once per build root, it reports all the projects that belong to the build
+            Set<Path> visited = new HashSet<>();
+            for (Map.Entry<Path, Future<Map<String, Project>>> result : results.entrySet()) {
 
-                projectsCache.put(project.id(), project);
+                Path descriptor = result.getKey();
 
-                for (ProjectDependency projectDependency : project.projectDependencies) {
-                    if (!StringUtils.isEmpty(projectDependency.buildFile)) {
-                        Path p = path.resolve(projectDependency.buildFile).toAbsolutePath().normalize();
-                        visited.add(p);
-                    }
+                if (!visited.add(descriptor)) {
+                    // build was reported by another one
+                    LOGGER.info("{} was reported by another build, stopping it", descriptor);
+                    cancellations.get(descriptor).cancel();
+                    result.getValue().cancel(true);
+                    continue;
                 }
-                LanguageServerConfiguration configuration = new LanguageServerConfiguration();
-                configuration.sources = new LinkedHashSet<>();
-                configuration.classPath = new LinkedHashSet<>();
-                configuration.outputDirectory = project.outputDir;
-                configurations.put(project.id(), configuration);
-            }
+                Map<String, Project> projects;
+                try {
+                    projects = result.getValue().get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Unable to process Gradle build " + descriptor, e.getCause());
+                }
+                for (Project project : projects.values()) {
+
+                    projectsCache.put(project.id(), project);
+                    if (affectedRoots.contains(descriptor)) {
+                        changedProjects.add(project.id());
+                    }
+                    projectGraph.addModule(project.id());
+                    if (!StringUtils.isEmpty(project.projectDir)) {
+                        visited.addAll(directoryDescriptors.getOrDefault(
+                                Paths.get(project.projectDir).toAbsolutePath().normalize(),
+                                Collections.emptyList()));
+                    }
 
-            for (Map.Entry<String, LanguageServerConfiguration> entry : configurations.entrySet()) {
-                LanguageServerConfiguration configuration = entry.getValue();
-                Collection<Project> allProjects = collectProjects(entry.getKey(), projectsCache);
-                for (Project project : allProjects) {
-                    configuration.classPath.addAll(project.classPath);
-                    configuration.classPath.addAll(project.dependencies.stream().filter(dependency ->
-                            !StringUtils.isEmpty(dependency.file)).map(dependency ->
-                            dependency.file).
-                            collect(Collectors.toList()));
-                    configuration.sources.addAll(project.sourceDirs.stream().
-                            map(s -> s.filePath).
-                            collect(Collectors.toList()));
-                    for (String item : project.classPath) {
-                        File file = path.resolve(item).toFile();
-                        if (file.isDirectory()) {
-                            configuration.sources.add(item);
+                    for (ProjectDependency projectDependency : project.projectDependencies) {
+                        projectGraph.addDependency(project.id(),
+                                projectDependency.groupId + '/' + projectDependency.artifactId);
+                        if (!StringUtils.isEmpty(projectDependency.buildFile)) {
+                            Path p = path.resolve(projectDependency.buildFile).toAbsolutePath().normalize();
+                            visited.add(p);
                         }
                     }
                 }
-                Project p = projectsCache.get(entry.getKey());
-                configuration.write(path, Paths.get(p.projectDir).resolve(".jls-config"));
             }
-
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing Gradle builds", e);
+        } finally {
+            cancellation.cancel();
+            options.cancellation.remove(cancellation);
+            WorkerPools.cancel(results.values());
+            if (tooling != null) {
+                tooling.close();
+            }
+        }
+        metadataCache.save(options.changedDescriptors != null);
+
+        // all the builds are extracted, each project's configuration is computed and written once
+        Set<String> written = options.changedDescriptors == null ?
+                projectsCache.keySet() :
+                projectGraph.getAffected(changedProjects);
+        if (options.changedDescriptors != null) {
+            LOGGER.info("Updating {} of {} Gradle project(s)", written.size(), projectsCache.size());
+        }
+        Map<String, Future<?>> writes = new LinkedHashMap<>();
+        executor = options.pools.getWritePool();
+        try {
+            for (Project project : projectsCache.values()) {
+                if (!written.contains(project.id())) {
+                    continue;
+                }
+                writes.put(project.id(), executor.submit(() -> writeConfiguration(path,
+                        project,
+                        projectsCache,
+                        projectGraph,
+                        writer)));
+            }
+            for (Map.Entry<String, Future<?>> write : writes.entrySet()) {
+                try {
+                    write.getValue().get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Unable to write configuration of Gradle project " +
+                            write.getKey(), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing Gradle configurations", e);
+        } finally {
+            WorkerPools.cancel(writes.values());
         }
 
         return !projectsCache.isEmpty();
     }
 
+    /**
+     * Replaces paths of projects with canonical instances, the same dependencies are shared by many projects
+     *
+     * @param projects projects to update
+     * @param writer   configuration writer that keeps canonical paths
+     */
+    private static void intern(Collection<Project> projects, ConfigurationWriter writer) {
+        for (Project project : projects) {
+            project.classPath = writer.intern(project.classPath);
+            for (Dependency dependency : project.dependencies) {
+                dependency.file = writer.intern(dependency.file);
+            }
+            for (SourcePathElement sourceDir : project.sourceDirs) {
+                sourceDir.filePath = writer.intern(sourceDir.filePath);
+            }
+        }
+    }
+
+    /**
+     * @param descriptor build root's Gradle file
+     * @param changed    changed files
+     * @return true if some of changed files is located under build root's directory
+     */
+    private static boolean isAffected(Path descriptor, Collection<Path> changed) {
+        Path directory = descriptor.toAbsolutePath().normalize().getParent();
+        return changed.stream().anyMatch(file -> file.toAbsolutePath().normalize().startsWith(directory));
+    }
+
+    /**
+     * Computes project's configuration from project and projects it depends on and writes configuration file
+     *
+     * @param root          workspace root
+     * @param project       project to write configuration of
+     * @param projectsCache map of project ID -> project
+     * @param projectGraph  graph of dependencies between projects
+     * @param writer        configuration writer
+     */
+    private static void writeConfiguration(Path root,
+                                           Project project,
+                                           Map<String, Project> projectsCache,
+                                           ModuleGraph<String> projectGraph,
+                                           ConfigurationWriter writer) {
+        LanguageServerConfiguration configuration = new LanguageServerConfiguration();
+        configuration.sources = new LinkedHashSet<>();
+        configuration.classPath = new LinkedHashSet<>();
+        configuration.outputDirectory = project.outputDir;
+        for (Project dependency : collectProjects(project.id(), projectsCache, projectGraph)) {
+            configuration.classPath.addAll(dependency.classPath);
+            configuration.classPath.addAll(dependency.dependencies.stream().filter(d ->
+                    !StringUtils.isEmpty(d.file)).map(d ->
+                    d.file).
+                    collect(Collectors.toList()));
+            configuration.sources.addAll(dependency.sourceDirs.stream().
+                    map(s -> s.filePath).
+                    collect(Collectors.toList()));
+            for (String item : dependency.classPath) {
+                File file = root.resolve(item).toFile();
+                if (file.isDirectory()) {
+                    configuration.sources.add(item);
+                }
+            }
+        }
+        writer.write(Paths.get(project.projectDir), configuration);
+    }
+
+    /**
+     * @param threads requested number of concurrent Gradle builds
+     * @return number of concurrent Gradle builds, limited by available physical memory
+     */
+    static int getPoolSize(int threads) {
+        int ret = Math.max(threads, 1);
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            long free = ((com.sun.management.OperatingSystemMXBean) os).getFreePhysicalMemorySize();
+            if (free > 0) {
+                ret = (int) Math.max(1, Math.min(ret, free / GRADLE_PROCESS_MEMORY));
+            }
+        }
+        LOGGER.debug("Running up to {} Gradle build(s) concurrently", ret);
+        return ret;
+    }
+
     /**
      * Extracts meta information from given Gradle build file
      *
-     * @param root       workspace root
-     * @param descriptor Gradle build file
-     * @param visited    tracks visited files
+     * @param root         workspace root
+     * @param index        workspace index
+     * @param descriptor   Gradle build file
+     * @param options      command options
+     * @param tooling      Tooling API extractor, null if Gradle process should be used
+     * @param cancellation stops the build
+     * @return map of project ID -> project, ordered as reported by Gradle
+     * @throws CancellationException if build was cancelled
      */
-    private static Map<String, Project> processDescriptor(Path root, Path descriptor, Set<Path> visited) {
-        Collection<Project> projects = collectMetaInformation(root, descriptor);
-        Map<String, Project> ret = new HashMap<>();
+    private static Map<String, Project> processDescriptor(Path root,
+                                                          WorkspaceIndex index,
+                                                          Path descriptor,
+                                                          PrepareCommand options,
+                                                          GradleToolingExtractor tooling,
+                                                          GradleCancellation cancellation) {
+        Collection<Project> projects = null;
+        if (tooling != null) {
+            try {
+                projects = tooling.collectMetaInformation(descriptor,
+                        getWrapper(root, index, descriptor),
+                        cancellation.getToken());
+            } catch (IOException | RuntimeException e) {
+                if (cancellation.isCancelled()) {
+                    throw new CancellationException("Gradle build " + descriptor + " was cancelled");
+                }
+                LOGGER.warn("Unable to fetch Gradle models of {}, falling back to metadata extraction script",
+                        descriptor,
+                        e);
+            }
+        }
+        if (projects == null) {
+            projects = collectMetaInformation(root, index, descriptor, options, cancellation);
+        }
+        if (cancellation.isCancelled()) {
+            throw new CancellationException("Gradle build " + descriptor + " was cancelled");
+        }
+        return toMap(projects);
+    }
+
+    /**
+     * @param projects projects
+     * @return map of project ID -> project, ordered as given
+     */
+    private static Map<String, Project> toMap(Collection<Project> projects) {
+        Map<String, Project> ret = new LinkedHashMap<>();
         for (Project project : projects) {
             ret.put(project.groupId + '/' + project.artifactId, project);
         }
@@ -106,15 +373,24 @@ class GradleConfiguration {
     /**
      * Extracts meta information from given Gradle build file
      *
-     * @param root       workspace root
-     * @param descriptor Gradle build file
+     * @param root         workspace root
+     * @param index        workspace index
+     * @param descriptor   Gradle build file
+     * @param options      command options
+     * @param cancellation destroys Gradle process if build is cancelled
      */
-    private static Collection<Project> collectMetaInformation(Path root, Path descriptor) {
+    private static Collection<Project> collectMetaInformation(Path root,
+                                                              WorkspaceIndex index,
+                                                              Path descriptor,
+                                                              PrepareCommand options,
+                                                              GradleCancellation cancellation) {
 
         try {
-            Path wrapper = getWrapper(root, descriptor);
+            Path wrapper = getWrapper(root, index, descriptor);
 
             Path modifiedGradleScriptFile = Files.createTempFile("srclib-collect-meta", "gradle");
+            // init script writes projects meta information there
+            Path metaInformationFile = Files.createTempFile("srclib-collect-meta", "json");
 
             try {
                 InputStream inputStream = GradleConfiguration.class.getResourceAsStream(TASK_CODE_RESOURCE);
@@ -127,7 +403,13 @@ class GradleConfiguration {
                 }
 
                 Path workDir = descriptor.toAbsolutePath().getParent();
-                List<String> gradleArgs = createArguments(wrapper, modifiedGradleScriptFile);
+                List<String> gradleArgs = createArguments(wrapper,
+                        modifiedGradleScriptFile,
+                        metaInformationFile,
+                        options.offline,
+                        options.gradleMetadataOnly,
+                        options.gradleParallel,
+                        options.pools.getGradleBuildWorkers());
                 ProcessBuilder pb = new ProcessBuilder(gradleArgs);
 
                 if (LOGGER.isDebugEnabled()) {
@@ -139,107 +421,52 @@ class GradleConfiguration {
                 pb.directory(new File(workDir.toString()));
                 pb.redirectErrorStream(true);
                 BufferedReader in = null;
-                Collection<Project> results = new ArrayList<>();
-                Project project = null;
+                // build output is kept only to report failures
+                Deque<String> output = new ArrayDeque<>(OUTPUT_TAIL_LINES);
+                boolean failed = false;
 
+                Process process = pb.start();
                 try {
-                    Process process = pb.start();
+                    // destroyed process closes its output, reading stops
+                    cancellation.register(process);
                     in = new BufferedReader(new InputStreamReader(process.getInputStream()));
 
                     String line;
-                    StringBuilder output = new StringBuilder();
                     while ((line = in.readLine()) != null) {
-                        if ("BUILD FAILED".equals(line)) {
-                            LOGGER.error("Failed to process {} - gradle build failed. Output was: {}", descriptor, output);
-                            results.clear();
-                            break;
-                        }
-                        String meta[] = parseMeta(line);
-                        if (meta == null) {
-                            LOGGER.debug("gradle: {}", line);
+                        if (line.startsWith(WARNING_PREFIX)) {
+                            LOGGER.warn("gradle: {}", line.substring(WARNING_PREFIX.length()));
                             continue;
                         }
-                        String prefix = meta[0];
-                        String payload = meta[1];
-                        switch (prefix) {
-                            case "SRCLIB-ARTIFACT":
-                                project = new Project();
-                                results.add(project);
-                                project.artifactId = payload;
-                                break;
-                            case "SRCLIB-GROUP":
-                                if (project == null) {
-                                    continue;
-                                }
-                                project.groupId = groupId(payload);
-                                break;
-                            case "SRCLIB-CLASSPATH":
-                                if (project == null) {
-                                    continue;
-                                }
-                                for (String path : payload.split(SystemUtils.PATH_SEPARATOR)) {
-                                    if (!StringUtils.isEmpty(path)) {
-                                        project.classPath.add(path);
-                                    }
-                                }
-                                break;
-                            case "SRCLIB-SOURCEDIR":
-                                if (project == null) {
-                                    continue;
-                                }
-                                String tokens[] = payload.split(":", 3);
-                                String unitName = groupId(tokens[0]) + '/' + tokens[1];
-                                project.sourceDirs.add(new SourcePathElement(unitName, tokens[2]));
-                                break;
-                            case "SRCLIB-PROJECTDIR":
-                                if (project == null) {
-                                    continue;
-                                }
-                                project.projectDir = payload;
-                                break;
-                            case "SRCLIB-PROJECTDEPENDENCY":
-                                if (project == null) {
-                                    continue;
-                                }
-                                String depTokens[] = payload.split(":", 3);
-                                project.projectDependencies.add(new ProjectDependency(groupId(depTokens[0]),
-                                        depTokens[1],
-                                        depTokens[2]));
-                                break;
-                            case "SRCLIB-DEPENDENCY":
-                                if (project == null) {
-                                    continue;
-                                }
-                                String[] parts = payload.split(":", 5);
-                                project.dependencies.add(new Dependency(
-                                        groupId(parts[1]), // GroupID
-                                        parts[2], // ArtifactID
-                                        parts[3], // Version
-                                        parts[0], // Scope
-                                        parts.length > 4 ? parts[4] : null // file
-                                ));
-                                break;
-                            case "SRCLIB-WARNING":
-                                LOGGER.warn("gradle: {}", payload);
-                                break;
-                            case "SRCLIB-OUTPUTDIR":
-                                if (project == null) {
-                                    continue;
-                                }
-                                project.outputDir = payload;
-                                break;
-                            default:
-                                LOGGER.debug("gradle: {}", line);
-                                output.append(line).append(IOUtils.LINE_SEPARATOR);
+                        LOGGER.debug("gradle: {}", line);
+                        if (output.size() == OUTPUT_TAIL_LINES) {
+                            output.removeFirst();
                         }
+                        output.addLast(line);
                     }
+                    int exitCode = process.waitFor();
+                    if (exitCode != 0) {
+                        LOGGER.debug("Gradle exited with code {}", exitCode);
+                        failed = true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    process.destroy();
+                    throw new IOException("Interrupted while waiting for Gradle", e);
                 } finally {
+                    cancellation.unregister(process);
                     IOUtils.closeQuietly(in);
                 }
 
-                return results;
+                if (failed) {
+                    LOGGER.error("Failed to process {} - gradle build failed. Output was: {}",
+                            descriptor,
+                            StringUtils.join(output, IOUtils.LINE_SEPARATOR));
+                    return Collections.emptyList();
+                }
+                return readMetaInformation(metaInformationFile);
             } finally {
                 Files.deleteIfExists(modifiedGradleScriptFile);
+                Files.deleteIfExists(metaInformationFile);
             }
         } catch (IOException ex) {
             LOGGER.warn("An error occurred while extracting metadata", ex);
@@ -247,55 +474,178 @@ class GradleConfiguration {
         }
     }
 
+    /**
+     * Reads projects meta information written by init script, one JSON document per project
+     *
+     * @param file file to read
+     * @return projects
+     * @throws IOException
+     */
+    private static Collection<Project> readMetaInformation(Path file) throws IOException {
+        Collection<Project> ret = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            // allows multiple top-level documents
+            reader.setLenient(true);
+            while (reader.peek() != JsonToken.END_DOCUMENT) {
+                ret.add(readProject(reader));
+            }
+        } catch (IllegalStateException | JsonParseException e) {
+            throw new IOException("Malformed meta information in " + file, e);
+        }
+        return ret;
+    }
+
+    /**
+     * Reads project meta information
+     *
+     * @param reader JSON reader
+     * @return project
+     * @throws IOException
+     */
+    private static Project readProject(JsonReader reader) throws IOException {
+        Project project = new Project();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "artifact":
+                    project.artifactId = nextString(reader);
+                    break;
+                case "group":
+                    project.groupId = groupId(nextString(reader));
+                    break;
+                case "projectDir":
+                    project.projectDir = nextString(reader);
+                    break;
+                case "outputDir":
+                    project.outputDir = nextString(reader);
+                    break;
+                case "classPath":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String path = nextString(reader);
+                        if (!StringUtils.isEmpty(path)) {
+                            project.classPath.add(path);
+                        }
+                    }
+                    reader.endArray();
+                    break;
+                case "sourceDirs":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        Map<String, String> sourceDir = readStrings(reader);
+                        String unitName = groupId(sourceDir.get("group")) + '/' + sourceDir.get("artifact");
+                        project.sourceDirs.add(new SourcePathElement(unitName, sourceDir.get("path")));
+                    }
+                    reader.endArray();
+                    break;
+                case "projectDependencies":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        Map<String, String> dependency = readStrings(reader);
+                        project.projectDependencies.add(new ProjectDependency(groupId(dependency.get("group")),
+                                dependency.get("artifact"),
+                                dependency.get("buildFile")));
+                    }
+                    reader.endArray();
+                    break;
+                case "dependencies":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        Map<String, String> dependency = readStrings(reader);
+                        project.dependencies.add(new Dependency(
+                                groupId(dependency.get("group")),
+                                dependency.get("artifact"),
+                                dependency.get("version"),
+                                dependency.get("scope"),
+                                dependency.get("file")
+                        ));
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return project;
+    }
+
+    /**
+     * Reads JSON object which values are strings
+     *
+     * @param reader JSON reader
+     * @return map of name -> value
+     * @throws IOException
+     */
+    private static Map<String, String> readStrings(JsonReader reader) throws IOException {
+        Map<String, String> ret = new HashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            ret.put(reader.nextName(), nextString(reader));
+        }
+        reader.endObject();
+        return ret;
+    }
+
+    /**
+     * @param reader JSON reader
+     * @return next string value or null
+     * @throws IOException
+     */
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
 
     /**
      * Collects all Gradle build descriptors in the given path
      *
-     * @param path root path
+     * @param index workspace index
      * @return Gradle build descriptors in the given path
      */
-    private static Collection<Path> getDescriptors(Path path) {
+    private static Collection<Path> getDescriptors(WorkspaceIndex index) {
+        Set<Path> descriptors = new LinkedHashSet<>(index.getGradleDescriptors());
         // putting root gradle file first, it may contain references to all the subprojects
         Set<Path> gradleFiles = new LinkedHashSet<>();
-        File rootGradleFile = path.resolve("build.gradle").toFile();
-        if (rootGradleFile.isFile()) {
-            gradleFiles.add(rootGradleFile.toPath().toAbsolutePath().normalize());
+        Path rootGradleFile = index.getRoot().resolve(WorkspaceIndex.GRADLE_DESCRIPTOR);
+        if (descriptors.contains(rootGradleFile)) {
+            gradleFiles.add(rootGradleFile);
         } else {
             // alexsaveliev: trying settings.gradle - build file name may be custom one
             // (see https://github.com/Netflix/archaius)
-            rootGradleFile = path.resolve("settings.gradle").toFile();
-            if (rootGradleFile.isFile()) {
-                gradleFiles.add(rootGradleFile.toPath().toAbsolutePath().normalize());
+            rootGradleFile = index.getRoot().resolve(WorkspaceIndex.GRADLE_SETTINGS);
+            if (index.getGradleSettings().contains(rootGradleFile)) {
+                gradleFiles.add(rootGradleFile);
             }
         }
 
-        try {
-            gradleFiles.addAll(ScanUtil.findMatchingFiles(path, "build.gradle"));
-        } catch (IOException ex) {
-            LOGGER.warn("Failed to scan for Gradle project descriptors", ex);
-        }
+        gradleFiles.addAll(descriptors);
 
         return gradleFiles;
     }
 
     /**
      * @param root       workpace root
+     * @param index      workspace index
      * @param gradleFile Gradle build file to process
      * @return best suitable Gradle command (gradlew in top directory if there is any or regular gradle)
      */
-    private static Path getWrapper(Path root, Path gradleFile) {
+    private static Path getWrapper(Path root, WorkspaceIndex index, Path gradleFile) {
         // looking for gradle wrapper from build file's path to current working dir
         String gradleExe;
         if (SystemUtils.IS_OS_WINDOWS) {
-            gradleExe = "gradlew.bat";
+            gradleExe = WorkspaceIndex.GRADLE_WRAPPER_WINDOWS;
         } else {
-            gradleExe = "gradlew";
+            gradleExe = WorkspaceIndex.GRADLE_WRAPPER;
         }
+        root = root.toAbsolutePath().normalize();
         Path current = gradleFile.toAbsolutePath().getParent().toAbsolutePath().normalize();
         while (true) {
             Path p = current.resolve(gradleExe);
-            File exeFile = p.toFile();
-            if (exeFile.exists() && !exeFile.isDirectory()) {
+            if (index.getGradleWrappers().contains(p)) {
                 return p;
             }
             if (current.startsWith(root) && !current.equals(root)) {
@@ -312,40 +662,55 @@ class GradleConfiguration {
         return null;
     }
 
-    /**
-     * Parses metadata line, expected format is PREFIX-SPACE-CONTENT
-     *
-     * @param line line to parse
-     * @return two-elements array, where first item is a prefix and second item is content
-     */
-    private static String[] parseMeta(String line) {
-        int idx = line.indexOf(' ');
-        if (-1 == idx)
-            return null;
-        return new String[]{line.substring(0, idx), line.substring(idx + 1).trim()};
-    }
-
     /**
      * @param groupId group ID (may be empty)
      * @return normalize group ID (not empty)
      */
-    private static String groupId(String groupId) {
+    static String groupId(String groupId) {
         return StringUtils.defaultIfEmpty(groupId, DEFAULT_GROUP_ID);
     }
 
     /**
      * Assembles arguments for Gradle wrapper
      *
-     * @param wrapper Gradle wrapper (may be null - use default one)
-     * @param script  Gradle init script
+     * @param wrapper      Gradle wrapper (may be null - use default one)
+     * @param script       Gradle init script
+     * @param output       file init script should write meta information to
+     * @param offline      if true, Gradle will use cached dependencies only
+     * @param metadataOnly if true, init script collects configuration-time data only and build tasks are not run
+     * @param parallel     if true, projects of the build are processed in parallel
+     * @param maxWorkers   max number of workers build may use in parallel mode
      * @return command line arguments
      */
-    private static List<String> createArguments(Path wrapper, Path script) {
+    private static List<String> createArguments(Path wrapper,
+                                                Path script,
+                                                Path output,
+                                                boolean offline,
+                                                boolean metadataOnly,
+                                                boolean parallel,
+                                                int maxWorkers) {
         List<String> ret = new LinkedList<>();
         ret.add("-I");
         ret.add(script.toString());
-        // disabling parallel builds
-        ret.add("-Dorg.gradle.parallel=false");
+        ret.add("-Dsrclib.output=" + output.toAbsolutePath());
+        if (offline) {
+            ret.add("--offline");
+        }
+        if (metadataOnly) {
+            ret.add("-Dsrclib.metadataOnly=true");
+            // configuring only projects that are needed, reusing cached task outputs if anything has to be built.
+            // Passed as properties, Gradle versions that do not support them ignore them
+            ret.add("-Dorg.gradle.configureondemand=true");
+            ret.add("-Dorg.gradle.caching=true");
+        }
+        if (parallel) {
+            // init script writes meta information of each project as a single document, output never interleaves.
+            // Concurrent builds share processors, worker limit is a property Gradle versions without it ignore
+            ret.add("--parallel");
+            ret.add("-Dorg.gradle.workers.max=" + maxWorkers);
+        } else {
+            ret.add("-Dorg.gradle.parallel=false");
+        }
         // turning off Gradle version check
         // see https://discuss.gradle.org/t/gradle-thinks-2-10-is-less-than-2-2-when-resolving-plugins/13434/3
         // it blocks indexing of github.com/facebook/react-native for example
@@ -374,55 +739,17 @@ class GradleConfiguration {
      *
      * @param id    project identifier
      * @param cache projects cache
+     * @param graph graph of dependencies between projects
      * @return list of projects that includes self and all dependencies
      */
-    private static Collection<Project> collectProjects(String id, Map<String, Project> cache) {
-        Set<String> visited = new HashSet<>();
-        Collection<Project> infos = new LinkedHashSet<>();
-        collectProjects(id, infos, cache, visited);
-        return infos;
-    }
-
-    /**
-     * Collects project and its dependencies
-     *
-     * @param id      project identiier
-     * @param infos   collection to fill with found information
-     * @param cache   projects cache
-     * @param visited set to control visited source units to avoid infinite loops
-     */
-    private static void collectProjects(String id,
-                                        Collection<Project> infos,
-                                        Map<String, Project> cache,
-                                        Set<String> visited) {
-        visited.add(id);
-        Project project = cache.get(id);
-        if (project == null) {
-            return;
-        }
-        infos.add(project);
-
-        for (ProjectDependency projectDependency : project.projectDependencies) {
-            String depId = projectDependency.groupId + '/' + projectDependency.artifactId;
-            if (!visited.contains(depId)) {
-                collectProjects(depId, infos, cache, visited);
-            }
-        }
-        // alexsaveliev: github.com/elastic/elasticsearch declares project dependencies as external
-        // in order to resolve it, we'll check if there is an source unit with the same name
-        // as declared in external dependency and use unit's sourcepath if found
-        for (Dependency raw : project.dependencies) {
-            String depId = raw.groupID + '/' + raw.artifactID;
-            project = cache.get(depId);
-            if (project != null) {
-                if (!visited.contains(id)) {
-                    collectProjects(id, infos, cache, visited);
-                }
-            }
-        }
+    private static Collection<Project> collectProjects(String id, Map<String, Project> cache, ModuleGraph<String> graph) {
+        return graph.getClosure(id).stream().
+                map(cache::get).
+                filter(Objects::nonNull).
+                collect(Collectors.toList());
     }
 
-    private static class Project {
+    static class Project {
         String artifactId;
         String groupId;
         String projectDir;
@@ -441,7 +768,7 @@ class GradleConfiguration {
      * Project's dependency (reference to another sub-project or module that produces artifact A in group G by
      * build file B)
      */
-    private static class ProjectDependency {
+    static class ProjectDependency {
         String groupId;
         String artifactId;
         String buildFile;
@@ -463,7 +790,7 @@ class GradleConfiguration {
         }
     }
 
-    private static class SourcePathElement {
+    static class SourcePathElement {
 
         String name;
         String filePath;
@@ -481,7 +808,7 @@ class GradleConfiguration {
 
     }
 
-    private static class Dependency {
+    static class Dependency {
 
         String groupID;
         String artifactID;
@@ -0,0 +1,310 @@
+package com.sourcegraph.langp;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Gradle projects meta information persisted between runs. Meta information of build root is reused while
+ * fingerprint of build scripts (including applied scripts, Kotlin DSL scripts and version catalogs), build
+ * properties, buildSrc and metadata extraction script does not change and files it refers to exist.
+ * Safe for concurrent use.
+ */
+class GradleMetadataCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GradleMetadataCache.class);
+
+    /**
+     * Name of cache entry to keep meta information in
+     */
+    private static final String METADATA_INDEX = "gradle-metadata.json";
+
+    /**
+     * Increment when fingerprint rules or cache entry format change
+     */
+    private static final int METADATA_INDEX_VERSION = 2;
+
+    private static final String GRADLE_PROPERTIES = "gradle.properties";
+    private static final String WRAPPER_PROPERTIES = "gradle/wrapper/gradle-wrapper.properties";
+    private static final String BUILD_SRC = "buildSrc";
+    private static final String GRADLE_DIR = "gradle";
+
+    /**
+     * Matches apply from: 'script', apply from: file('script') and apply(from = "script") declarations, first group
+     * is a script location
+     */
+    private static final Pattern APPLY_FROM = Pattern.compile(
+            "\\bapply\\s*\\(?\\s*from\\s*[:=]\\s*(?:file\\s*\\(\\s*)?['\"]([^'\"$]+)['\"]");
+
+    private WorkspaceCache cache;
+
+    /**
+     * build root's Gradle file -> meta information, loaded from cache
+     */
+    private Map<String, BuildMetadata> previous = new ConcurrentHashMap<>();
+
+    /**
+     * build root's Gradle file -> meta information, used or extracted during current run
+     */
+    private Map<String, BuildMetadata> current = new ConcurrentHashMap<>();
+
+    private volatile boolean modified;
+
+    /**
+     * Hash of metadata extraction script bundled with the tool
+     */
+    private String scriptHash;
+
+    /**
+     * @param cache  workspace cache to load meta information from (may be null)
+     * @param script metadata extraction script resource
+     */
+    GradleMetadataCache(WorkspaceCache cache, String script) {
+        this.cache = cache;
+        try (InputStream is = GradleMetadataCache.class.getResourceAsStream(script)) {
+            scriptHash = Hashing.sha1().hashBytes(IOUtils.toByteArray(is)).toString();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read " + script, e);
+        }
+        if (cache == null) {
+            return;
+        }
+        MetadataSnapshot snapshot = cache.read(METADATA_INDEX, MetadataSnapshot.class);
+        if (snapshot != null && snapshot.version == METADATA_INDEX_VERSION && snapshot.builds != null) {
+            previous.putAll(snapshot.builds);
+        }
+    }
+
+    /**
+     * Computes build root's fingerprint
+     *
+     * @param descriptor build root's Gradle file
+     * @param buildFiles Gradle files that belong to build root
+     * @param settings   extraction settings that affect results (backend, offline mode)
+     * @return fingerprint of settings, build scripts, scripts they apply, other Gradle and Kotlin scripts located next
+     * to them, build root's "gradle" directory (shared scripts, version catalogs, wrapper properties), build
+     * properties, buildSrc contents and metadata extraction script
+     * @throws IOException
+     */
+    String fingerprint(Path descriptor, Collection<Path> buildFiles, String settings) throws IOException {
+        Path directory = descriptor.toAbsolutePath().normalize().getParent();
+        Set<Path> files = new TreeSet<>();
+        Path settingsFile = directory.resolve(WorkspaceIndex.GRADLE_SETTINGS);
+        files.add(settingsFile);
+        files.add(directory.resolve(GRADLE_PROPERTIES));
+        files.add(directory.resolve(WRAPPER_PROPERTIES));
+        files.add(descriptor.toAbsolutePath().normalize());
+        Set<Path> directories = new HashSet<>();
+        directories.add(directory);
+        for (Path buildFile : buildFiles) {
+            buildFile = buildFile.toAbsolutePath().normalize();
+            files.add(buildFile);
+            directories.add(buildFile.getParent());
+        }
+        // scripts applied from build files may be located anywhere, ones that are referred by literal path are known
+        collectAppliedScripts(settingsFile, directory, files);
+        for (Path buildFile : buildFiles) {
+            buildFile = buildFile.toAbsolutePath().normalize();
+            collectAppliedScripts(buildFile, buildFile.getParent(), files);
+        }
+        // Kotlin DSL build files and scripts kept next to build files
+        for (Path dir : directories) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, entry -> isScript(entry) &&
+                    Files.isRegularFile(entry))) {
+                for (Path file : stream) {
+                    files.add(file);
+                }
+            }
+        }
+        // shared scripts and version catalogs
+        Path gradleDir = directory.resolve(GRADLE_DIR);
+        if (Files.isDirectory(gradleDir)) {
+            Files.walkFileTree(gradleDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (isScript(file)) {
+                        files.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        Path buildSrc = directory.resolve(BUILD_SRC);
+        if (Files.isDirectory(buildSrc)) {
+            Files.walkFileTree(buildSrc, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    // buildSrc's own build outputs do not affect build
+                    if (!dir.equals(buildSrc) && ScanUtil.isSkipped(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    files.add(file);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putString(scriptHash, StandardCharsets.UTF_8);
+        hasher.putString(settings, StandardCharsets.UTF_8);
+        for (Path file : files) {
+            hasher.putString(directory.relativize(file).toString(), StandardCharsets.UTF_8);
+            if (Files.isRegularFile(file)) {
+                hasher.putBytes(Files.readAllBytes(file));
+            } else {
+                hasher.putByte((byte) 0);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @param descriptor  build root's Gradle file
+     * @param fingerprint build root's fingerprint
+     * @return cached meta information of build's projects or null if there is no cached meta information or some
+     * of dependency files or classpath archives it refers to no longer exist
+     */
+    List<GradleConfiguration.Project> get(Path descriptor, String fingerprint) {
+        String key = descriptor.toAbsolutePath().normalize().toString();
+        BuildMetadata metadata = previous.get(key);
+        if (metadata == null || !fingerprint.equals(metadata.fingerprint) || metadata.projects == null) {
+            return null;
+        }
+        for (GradleConfiguration.Project project : metadata.projects) {
+            for (GradleConfiguration.Dependency dependency : project.dependencies) {
+                if (!StringUtils.isEmpty(dependency.file) && !Files.exists(Paths.get(dependency.file))) {
+                    return null;
+                }
+            }
+            for (String item : project.classPath) {
+                // output directories may legitimately be missing until project is built
+                if (isArchive(item) && !Files.isRegularFile(Paths.get(item))) {
+                    return null;
+                }
+            }
+        }
+        current.put(key, metadata);
+        return metadata.projects;
+    }
+
+    /**
+     * Caches meta information of build's projects
+     *
+     * @param descriptor  build root's Gradle file
+     * @param fingerprint build root's fingerprint
+     * @param projects    build's projects
+     */
+    void put(Path descriptor, String fingerprint, List<GradleConfiguration.Project> projects) {
+        current.put(descriptor.toAbsolutePath().normalize().toString(), new BuildMetadata(fingerprint, projects));
+        modified = true;
+    }
+
+    /**
+     * Saves meta information used during current run, entries that were not used are dropped unless run is
+     * incremental
+     *
+     * @param incremental only some of the workspace builds were processed during current run
+     */
+    void save(boolean incremental) {
+        if (cache == null) {
+            return;
+        }
+        if (incremental) {
+            previous.forEach(current::putIfAbsent);
+        }
+        if (modified || !current.keySet().equals(previous.keySet())) {
+            LOGGER.debug("Saving meta information of {} Gradle build(s)", current.size());
+            cache.write(METADATA_INDEX, new MetadataSnapshot(current));
+        }
+    }
+
+    /**
+     * Collects scripts applied by given script, recursively
+     *
+     * @param script     Gradle script
+     * @param projectDir directory applied scripts locations are relative to
+     * @param files      collection to add scripts to
+     * @throws IOException
+     */
+    private static void collectAppliedScripts(Path script, Path projectDir, Set<Path> files) throws IOException {
+        if (!Files.isRegularFile(script)) {
+            return;
+        }
+        String content = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+        Matcher matcher = APPLY_FROM.matcher(content);
+        while (matcher.find()) {
+            String location = matcher.group(1);
+            if (location.contains("://")) {
+                // remote script
+                continue;
+            }
+            Path file = projectDir.resolve(location).toAbsolutePath().normalize();
+            if (files.add(file)) {
+                collectAppliedScripts(file, projectDir, files);
+            }
+        }
+    }
+
+    /**
+     * @param file file
+     * @return true if file is Gradle script, Kotlin script or version catalog
+     */
+    private static boolean isScript(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".gradle") || name.endsWith(".kts") || name.endsWith(".toml");
+    }
+
+    /**
+     * @param item classpath item
+     * @return true if item is an archive
+     */
+    private static boolean isArchive(String item) {
+        return item.endsWith(".jar") || item.endsWith(".aar") || item.endsWith(".zip");
+    }
+
+    /**
+     * Meta information of single build
+     */
+    private static class BuildMetadata {
+
+        String fingerprint;
+        List<GradleConfiguration.Project> projects;
+
+        BuildMetadata(String fingerprint, List<GradleConfiguration.Project> projects) {
+            this.fingerprint = fingerprint;
+            this.projects = projects;
+        }
+    }
+
+    /**
+     * Meta information persisted between runs
+     */
+    private static class MetadataSnapshot {
+
+        int version;
+        Map<String, BuildMetadata> builds;
+
+        MetadataSnapshot(Map<String, BuildMetadata> builds) {
+            this.version = METADATA_INDEX_VERSION;
+            this.builds = builds;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.sourcegraph.langp;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.SystemUtils;
+import org.gradle.tooling.CancellationToken;
+import org.gradle.tooling.GradleConnectionException;
+import org.gradle.tooling.GradleConnector;
+import org.gradle.tooling.ProjectConnection;
+import org.gradle.tooling.model.GradleModuleVersion;
+import org.gradle.tooling.model.UnsupportedMethodException;
+import org.gradle.tooling.model.idea.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Extracts Gradle project models through Gradle Tooling API. Connections are kept open until extractor is closed,
+ * builds are configured by long-lived Gradle daemons shared between extractions, so JVM startup and build script
+ * compilation are paid only once per daemon. Safe for concurrent use.
+ * Project coordinates are taken from the same place metadata extraction script takes them from, so that projects
+ * extracted by both backends have the same IDs. Builds that IDEA model cannot describe (Android ones) are left to
+ * metadata extraction script
+ */
+class GradleToolingExtractor implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GradleToolingExtractor.class);
+
+    /**
+     * Init script that reports project coordinates
+     */
+    private static final String PROJECTS_SCRIPT_RESOURCE = "/toolingprojects.gradle";
+
+    /**
+     * IDEA dependency scopes matching Gradle configurations supported by metadata extraction script
+     */
+    private static final Map<String, String> SCOPES = new HashMap<>();
+
+    static {
+        SCOPES.put("COMPILE", "compile");
+        SCOPES.put("PROVIDED", "provided");
+        SCOPES.put("TEST", "testCompile");
+    }
+
+    /**
+     * Gradle installation to use for builds that have no wrapper (may be null)
+     */
+    private File installation;
+
+    private boolean offline;
+
+    /**
+     * build root directory -> connection
+     */
+    private Map<Path, ProjectConnection> connections = new ConcurrentHashMap<>();
+
+    /**
+     * @param offline run Gradle in offline mode
+     */
+    GradleToolingExtractor(boolean offline) {
+        this.offline = offline;
+        this.installation = getInstallation();
+    }
+
+    /**
+     * Fetches models of all the projects that belong to the build
+     *
+     * @param descriptor build root's Gradle file
+     * @param wrapper    Gradle wrapper to use (may be null)
+     * @param token      cancellation token that stops the build
+     * @return projects that belong to the build, null if build should be processed by metadata extraction script
+     * (Android builds, builds IDEA model reports no modules for)
+     * @throws GradleConnectionException   if Gradle build failed
+     * @throws UnsupportedMethodException if Gradle version used by build does not provide required information
+     * @throws IOException                if project coordinates cannot be read
+     */
+    Collection<GradleConfiguration.Project> collectMetaInformation(Path descriptor,
+                                                                   Path wrapper,
+                                                                   CancellationToken token) throws IOException {
+        Path directory = descriptor.toAbsolutePath().normalize().getParent();
+        Path script = Files.createTempFile("srclib-tooling-projects", "gradle");
+        // init script writes projects coordinates there
+        Path projectsFile = Files.createTempFile("srclib-tooling-projects", "json");
+        IdeaProject model;
+        Map<String, ProjectInfo> infos;
+        try {
+            try (InputStream inputStream = GradleToolingExtractor.class.getResourceAsStream(PROJECTS_SCRIPT_RESOURCE);
+                 OutputStream outputStream = Files.newOutputStream(script)) {
+                IOUtils.copy(inputStream, outputStream);
+            }
+            model = getConnection(directory, wrapper).
+                    model(IdeaProject.class).
+                    withArguments(getArguments(script, projectsFile)).
+                    withCancellationToken(token).
+                    get();
+            infos = readProjects(projectsFile);
+        } finally {
+            Files.deleteIfExists(script);
+            Files.deleteIfExists(projectsFile);
+        }
+
+        // IDEA module name -> project, module dependencies refer to modules by name
+        Map<String, GradleConfiguration.Project> projects = new LinkedHashMap<>();
+        Map<String, IdeaModule> modules = new HashMap<>();
+        for (IdeaModule module : model.getModules()) {
+            ProjectInfo info = infos.get(module.getGradleProject().getPath());
+            if (info == null) {
+                LOGGER.warn("No coordinates reported for Gradle project {} of {}",
+                        module.getGradleProject().getPath(),
+                        descriptor);
+                return null;
+            }
+            if (info.android) {
+                LOGGER.info("{} is an Android build, IDEA model does not describe it", descriptor);
+                return null;
+            }
+            GradleConfiguration.Project project = new GradleConfiguration.Project();
+            project.groupId = GradleConfiguration.groupId(info.group);
+            project.artifactId = info.artifact;
+            projects.put(module.getName(), project);
+            modules.put(module.getName(), module);
+        }
+        if (projects.isEmpty()) {
+            LOGGER.info("Gradle reported no IDEA modules for {}", descriptor);
+            return null;
+        }
+
+        for (Map.Entry<String, GradleConfiguration.Project> entry : projects.entrySet()) {
+            GradleConfiguration.Project project = entry.getValue();
+            IdeaModule module = modules.get(entry.getKey());
+            project.projectDir = module.getGradleProject().getProjectDirectory().getAbsolutePath();
+            IdeaCompilerOutput output = module.getCompilerOutput();
+            if (output != null && output.getOutputDir() != null) {
+                project.outputDir = output.getOutputDir().getAbsolutePath();
+            }
+            for (IdeaContentRoot contentRoot : module.getContentRoots()) {
+                for (IdeaSourceDirectory sourceDirectory : contentRoot.getSourceDirectories()) {
+                    project.sourceDirs.add(new GradleConfiguration.SourcePathElement(project.id(),
+                            sourceDirectory.getDirectory().getAbsolutePath()));
+                }
+                for (IdeaSourceDirectory sourceDirectory : contentRoot.getTestDirectories()) {
+                    project.sourceDirs.add(new GradleConfiguration.SourcePathElement(project.id(),
+                            sourceDirectory.getDirectory().getAbsolutePath()));
+                }
+            }
+            for (IdeaDependency dependency : module.getDependencies()) {
+                String scope = dependency.getScope() == null ? null : SCOPES.get(dependency.getScope().getScope());
+                if (scope == null) {
+                    continue;
+                }
+                if (dependency instanceof IdeaModuleDependency) {
+                    GradleConfiguration.Project target = projects.get(
+                            ((IdeaModuleDependency) dependency).getTargetModuleName());
+                    if (target != null) {
+                        project.projectDependencies.add(new GradleConfiguration.ProjectDependency(target.groupId,
+                                target.artifactId,
+                                null));
+                    }
+                } else if (dependency instanceof IdeaSingleEntryLibraryDependency) {
+                    IdeaSingleEntryLibraryDependency library = (IdeaSingleEntryLibraryDependency) dependency;
+                    if (library.getFile() == null) {
+                        continue;
+                    }
+                    GradleModuleVersion version = library.getGradleModuleVersion();
+                    project.dependencies.add(new GradleConfiguration.Dependency(
+                            version == null ? null : version.getGroup(),
+                            version == null ? library.getFile().getName() : version.getName(),
+                            version == null ? null : version.getVersion(),
+                            scope,
+                            library.getFile().getAbsolutePath()));
+                }
+            }
+        }
+        return projects.values();
+    }
+
+    @Override
+    public void close() {
+        for (ProjectConnection connection : connections.values()) {
+            connection.close();
+        }
+        connections.clear();
+    }
+
+    /**
+     * @param directory build root directory
+     * @param wrapper   Gradle wrapper to use (may be null)
+     * @return connection to build, opened on first use
+     */
+    private ProjectConnection getConnection(Path directory, Path wrapper) {
+        return connections.computeIfAbsent(directory, d -> {
+            GradleConnector connector = GradleConnector.newConnector().forProjectDirectory(d.toFile());
+            if (wrapper == null && installation != null) {
+                connector.useInstallation(installation);
+            }
+            // otherwise Tooling API picks build's own wrapper
+            return connector.connect();
+        });
+    }
+
+    /**
+     * @param script init script that reports project coordinates
+     * @param output file init script should write project coordinates to
+     * @return command line arguments to pass to Gradle
+     */
+    private String[] getArguments(Path script, Path output) {
+        List<String> ret = new LinkedList<>();
+        ret.add("-I");
+        ret.add(script.toString());
+        ret.add("-Dsrclib.projects=" + output.toAbsolutePath());
+        // see GradleConfiguration.createArguments()
+        ret.add("-Dcom.android.build.gradle.overrideVersionCheck=true");
+        if (offline) {
+            ret.add("--offline");
+        }
+        return ret.toArray(new String[ret.size()]);
+    }
+
+    /**
+     * Reads project coordinates written by init script, one JSON document per project
+     *
+     * @param file file to read
+     * @return map of project path -> project coordinates
+     * @throws IOException
+     */
+    private static Map<String, ProjectInfo> readProjects(Path file) throws IOException {
+        Map<String, ProjectInfo> ret = new HashMap<>();
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            // allows multiple top-level documents
+            reader.setLenient(true);
+            while (reader.peek() != JsonToken.END_DOCUMENT) {
+                ProjectInfo info = new ProjectInfo();
+                String path = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "path":
+                            path = reader.nextString();
+                            break;
+                        case "group":
+                            info.group = reader.nextString();
+                            break;
+                        case "artifact":
+                            info.artifact = reader.nextString();
+                            break;
+                        case "android":
+                            info.android = reader.nextBoolean();
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                ret.put(path, info);
+            }
+        } catch (IllegalStateException | JsonParseException e) {
+            throw new IOException("Malformed project coordinates in " + file, e);
+        }
+        return ret;
+    }
+
+    /**
+     * @return Gradle installation which command is available in PATH or null
+     */
+    private static File getInstallation() {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        String command = SystemUtils.IS_OS_WINDOWS ? "gradle.bat" : "gradle";
+        for (String entry : path.split(File.pathSeparator)) {
+            Path candidate = Paths.get(entry, command);
+            if (!Files.isRegularFile(candidate)) {
+                continue;
+            }
+            try {
+                // GRADLE_HOME/bin/gradle
+                Path home = candidate.toRealPath().getParent().getParent();
+                if (home != null && Files.isDirectory(home.resolve("lib"))) {
+                    return home.toFile();
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Unable to resolve Gradle installation {}", candidate, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Project coordinates reported by init script
+     */
+    private static class ProjectInfo {
+        String group;
+        String artifact;
+        boolean android;
+    }
+}
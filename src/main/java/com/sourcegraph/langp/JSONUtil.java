@@ -3,19 +3,19 @@ package com.sourcegraph.langp;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import java.io.Reader;
+import java.lang.reflect.Type;
+
 public class JSONUtil {
 
-    private static Gson gson;
+    private static Gson compactGson = new GsonBuilder().disableHtmlEscaping().create();
 
-    static {
-        GsonBuilder gsonBuilder = new GsonBuilder();
-        gsonBuilder.setPrettyPrinting();
-        gsonBuilder.disableHtmlEscaping();
-        gson = gsonBuilder.create();
+    static void writeCompact(Object o, Appendable writer) {
+        compactGson.toJson(o, writer);
     }
 
-    static void write(Object o, Appendable writer) {
-        gson.toJson(o, writer);
+    static <T> T read(Reader reader, Type type) {
+        return compactGson.fromJson(reader, type);
     }
 
 }
\ No newline at end of file
@@ -28,8 +28,12 @@ public class Main {
 
         // Add subcommands
         PrepareCommand prepare = new PrepareCommand();
+        ServeCommand serve = new ServeCommand();
+        WatchCommand watch = new WatchCommand();
 
         jc.addCommand("prepare", prepare);
+        jc.addCommand("serve", serve);
+        jc.addCommand("watch", watch);
 
         try {
             jc.parse(args);
@@ -42,6 +46,12 @@ public class Main {
             case "prepare":
                 prepare.Execute();
                 break;
+            case "serve":
+                serve.Execute();
+                break;
+            case "watch":
+                watch.Execute();
+                break;
             default:
                 LOGGER.error("Unknown command {}", jc.getParsedCommand());
                 jc.usage();
@@ -0,0 +1,275 @@
+package com.sourcegraph.langp;
+
+import com.google.common.cache.CacheBuilder;
+import org.eclipse.aether.AbstractRepositoryListener;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryEvent;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.repository.ArtifactRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.transfer.AbstractTransferListener;
+import org.eclipse.aether.transfer.TransferCancelledException;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.eclipse.aether.util.listener.ChainedRepositoryListener;
+import org.eclipse.aether.util.listener.ChainedTransferListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+/**
+ * Resolves artifacts using bounded pool of download workers. Requests for the same artifact share single
+ * resolution, number of concurrent downloads from each remote repository is limited. The limit applies to
+ * dependency collection as well if it uses {@link #getSession()}. Download workers and the limit may be shared by
+ * several downloaders
+ */
+class MavenArtifactDownloader implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MavenArtifactDownloader.class);
+
+    private RepositorySystem repositorySystem;
+    private RepositorySystemSession session;
+
+    private ExecutorService executor;
+
+    private RepositoryLimiter limiter;
+
+    /**
+     * Max number of resolved artifacts to remember
+     */
+    private static final int MAX_RESOLVED = 100000;
+
+    /**
+     * local repository and artifact key -> resolved artifact's file, shared by all downloaders of the process so
+     * that subsequent runs in serve mode do not consult local repository again. Runs with different local
+     * repositories never see each other's files. SNAPSHOTs are not kept there, least recently used entries are
+     * evicted when map is full
+     */
+    private static Map<String, File> resolved = CacheBuilder.newBuilder().
+            maximumSize(MAX_RESOLVED).
+            <String, File>build().
+            asMap();
+
+    /**
+     * artifact key -> resolution result (artifact has no file if resolution failed)
+     */
+    private Map<String, CompletableFuture<Artifact>> artifacts = new ConcurrentHashMap<>();
+
+    /**
+     * Resolutions submitted to download workers, cancelled on close
+     */
+    private Queue<Future<?>> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Base directory of session's local repository, prefix of {@link #resolved} keys
+     */
+    private String localRepository;
+
+    /**
+     * @param repositorySystem repository system
+     * @param session          repository system session
+     * @param executor         download workers
+     * @param limiter          limit of concurrent downloads from the same remote repository
+     */
+    MavenArtifactDownloader(RepositorySystem repositorySystem,
+                            RepositorySystemSession session,
+                            ExecutorService executor,
+                            RepositoryLimiter limiter) {
+        this.repositorySystem = repositorySystem;
+        this.limiter = limiter;
+        DefaultRepositorySystemSession downloadSession = new DefaultRepositorySystemSession(session);
+        downloadSession.setRepositoryListener(ChainedRepositoryListener.newInstance(session.getRepositoryListener(),
+                limiter));
+        downloadSession.setTransferListener(ChainedTransferListener.newInstance(session.getTransferListener(),
+                new CancellingTransferListener()));
+        this.session = downloadSession;
+        this.executor = executor;
+        localRepository = session.getLocalRepository().getBasedir().getAbsolutePath();
+    }
+
+    /**
+     * @return repository system session that limits number of concurrent downloads from each remote repository,
+     * callers that fetch POMs and metadata with it should call {@link #releaseHeld()} when done
+     */
+    RepositorySystemSession getSession() {
+        return session;
+    }
+
+    /**
+     * Releases download permits still held by current thread
+     */
+    void releaseHeld() {
+        limiter.releaseHeld();
+    }
+
+    /**
+     * Schedules resolution of dependency node's artifact, using node's repositories
+     *
+     * @param node dependency node
+     * @return resolved artifact, artifact has no file if resolution failed
+     */
+    CompletableFuture<Artifact> download(DependencyNode node) {
+        Artifact artifact = node.getDependency().getArtifact();
+        String key = artifact.toString();
+        CompletableFuture<Artifact> ret = artifacts.get(key);
+        if (ret != null) {
+            return ret;
+        }
+        String resolvedKey = localRepository + File.pathSeparatorChar + key;
+        File file = resolved.get(resolvedKey);
+        if (file != null && file.isFile()) {
+            return CompletableFuture.completedFuture(artifact.setFile(file));
+        }
+        CompletableFuture<Artifact> future = new CompletableFuture<>();
+        ret = artifacts.putIfAbsent(key, future);
+        if (ret != null) {
+            return ret;
+        }
+        ArtifactRequest request = new ArtifactRequest(node);
+        tasks.add(executor.submit(() -> {
+            try {
+                Artifact result = repositorySystem.resolveArtifact(session, request).getArtifact();
+                if (result.getFile() != null && !result.isSnapshot()) {
+                    resolved.put(resolvedKey, result.getFile());
+                }
+                future.complete(result);
+            } catch (ArtifactResolutionException e) {
+                LOGGER.debug("Failed to resolve {} - {}", artifact, e.getMessage());
+                future.complete(artifact);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to resolve {}", artifact, e);
+                future.complete(artifact);
+            } finally {
+                limiter.releaseHeld();
+            }
+        }));
+        return future;
+    }
+
+    /**
+     * Cancels pending resolutions, modules still waiting for them see cancelled futures
+     */
+    @Override
+    public void close() {
+        WorkerPools.cancel(tasks);
+        artifacts.values().forEach(future -> future.cancel(false));
+    }
+
+    /**
+     * Fails transfers of interrupted threads, so that cancelled worker stops waiting for download permit or
+     * transfer in progress and its resolution fails
+     */
+    private static class CancellingTransferListener extends AbstractTransferListener {
+
+        @Override
+        public void transferInitiated(TransferEvent event) throws TransferCancelledException {
+            checkInterrupted();
+        }
+
+        @Override
+        public void transferProgressed(TransferEvent event) throws TransferCancelledException {
+            checkInterrupted();
+        }
+
+        private static void checkInterrupted() throws TransferCancelledException {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new TransferCancelledException();
+            }
+        }
+    }
+
+    /**
+     * Blocks download worker before the transfer starts while there are too many transfers from the same repository
+     */
+    static class RepositoryLimiter extends AbstractRepositoryListener {
+
+        private int permits;
+
+        private Map<String, Semaphore> semaphores = new ConcurrentHashMap<>();
+
+        /**
+         * Permits held by current thread, released even if resolver did not report transfer completion
+         */
+        private ThreadLocal<Deque<Semaphore>> held = ThreadLocal.withInitial(LinkedList::new);
+
+        RepositoryLimiter(int permits) {
+            this.permits = permits;
+        }
+
+        @Override
+        public void artifactDownloading(RepositoryEvent event) {
+            acquire(event);
+        }
+
+        @Override
+        public void artifactDownloaded(RepositoryEvent event) {
+            release(event);
+        }
+
+        @Override
+        public void metadataDownloading(RepositoryEvent event) {
+            acquire(event);
+        }
+
+        @Override
+        public void metadataDownloaded(RepositoryEvent event) {
+            release(event);
+        }
+
+        /**
+         * Blocks current thread while there are too many transfers from event's repository. Repository listeners
+         * cannot fail resolution, if thread is interrupted it stays interrupted and transfer is failed by
+         * {@link CancellingTransferListener}
+         *
+         * @param event transfer start event
+         */
+        private void acquire(RepositoryEvent event) {
+            ArtifactRepository repository = event.getRepository();
+            if (repository == null) {
+                return;
+            }
+            Semaphore semaphore = semaphores.computeIfAbsent(repository.getId(), id -> new Semaphore(permits));
+            try {
+                semaphore.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            held.get().push(semaphore);
+        }
+
+        /**
+         * Releases permit acquired on transfer start
+         *
+         * @param event transfer end event
+         */
+        private void release(RepositoryEvent event) {
+            if (event.getRepository() == null) {
+                return;
+            }
+            Deque<Semaphore> semaphores = held.get();
+            if (!semaphores.isEmpty()) {
+                semaphores.pop().release();
+            }
+        }
+
+        /**
+         * Releases permits still held by current thread
+         */
+        void releaseHeld() {
+            Deque<Semaphore> semaphores = held.get();
+            while (!semaphores.isEmpty()) {
+                semaphores.pop().release();
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.sourcegraph.langp;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolved Maven classpaths persisted between runs. Classpath is keyed by fingerprint of module's external
+ * dependencies and repositories, so it can be reused without touching Aether while neither of them changes.
+ * Safe for concurrent use.
+ */
+class MavenClasspathCache {
+
+    /**
+     * Name of cache entry to keep resolved classpaths in
+     */
+    private static final String CLASSPATH_INDEX = "maven-classpath.json";
+
+    /**
+     * Increment when fingerprint rules or cache entry format change
+     */
+    private static final int CLASSPATH_INDEX_VERSION = 1;
+
+    private WorkspaceCache cache;
+
+    /**
+     * fingerprint -> classpath, loaded from cache
+     */
+    private Map<String, List<String>> previous = new ConcurrentHashMap<>();
+
+    /**
+     * fingerprint -> classpath, used or resolved during current run
+     */
+    private Map<String, List<String>> current = new ConcurrentHashMap<>();
+
+    private volatile boolean modified;
+
+    /**
+     * @param cache workspace cache to load classpaths from (may be null)
+     */
+    MavenClasspathCache(WorkspaceCache cache) {
+        this.cache = cache;
+        if (cache == null) {
+            return;
+        }
+        ClasspathSnapshot snapshot = cache.read(CLASSPATH_INDEX, ClasspathSnapshot.class);
+        if (snapshot != null && snapshot.version == CLASSPATH_INDEX_VERSION && snapshot.classPaths != null) {
+            previous.putAll(snapshot.classPaths);
+        }
+    }
+
+    /**
+     * @param fingerprint dependencies fingerprint
+     * @return cached classpath or null if there is no cached classpath or some of its files no longer exist
+     */
+    List<String> get(String fingerprint) {
+        List<String> ret = current.get(fingerprint);
+        if (ret != null) {
+            return ret;
+        }
+        ret = previous.get(fingerprint);
+        if (ret == null) {
+            return null;
+        }
+        for (String file : ret) {
+            if (!Files.isRegularFile(Paths.get(file))) {
+                return null;
+            }
+        }
+        current.put(fingerprint, ret);
+        return ret;
+    }
+
+    /**
+     * Caches resolved classpath
+     *
+     * @param fingerprint dependencies fingerprint
+     * @param classPath   fully resolved classpath
+     */
+    void put(String fingerprint, List<String> classPath) {
+        current.put(fingerprint, classPath);
+        modified = true;
+    }
+
+    /**
+     * Saves classpaths used during current run, entries that were not used are dropped unless run is incremental
+     *
+     * @param incremental only some of the workspace modules were processed during current run
+     */
+    void save(boolean incremental) {
+        if (cache == null) {
+            return;
+        }
+        if (incremental) {
+            previous.forEach(current::putIfAbsent);
+        }
+        if (modified || !current.keySet().equals(previous.keySet())) {
+            cache.write(CLASSPATH_INDEX, new ClasspathSnapshot(current));
+        }
+    }
+
+    /**
+     * Resolved classpaths persisted between runs
+     */
+    private static class ClasspathSnapshot {
+
+        int version;
+        Map<String, List<String>> classPaths;
+
+        ClasspathSnapshot(Map<String, List<String>> classPaths) {
+            this.version = CLASSPATH_INDEX_VERSION;
+            this.classPaths = classPaths;
+        }
+    }
+}
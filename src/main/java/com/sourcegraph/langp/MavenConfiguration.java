@@ -1,11 +1,14 @@
 package com.sourcegraph.langp;
 
+import com.google.common.hash.Hashing;
 import org.apache.maven.model.Dependency;
+import org.apache.maven.model.DependencyManagement;
+import org.apache.maven.model.Model;
 import org.apache.maven.model.Repository;
 import org.apache.maven.model.building.*;
-import org.apache.maven.project.MavenProject;
 import org.apache.maven.repository.internal.ArtifactDescriptorUtils;
 import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
+import org.eclipse.aether.DefaultRepositoryCache;
 import org.eclipse.aether.DefaultRepositorySystemSession;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
@@ -16,12 +19,11 @@ import org.eclipse.aether.collection.CollectRequest;
 import org.eclipse.aether.collection.DependencyCollectionException;
 import org.eclipse.aether.connector.basic.BasicRepositoryConnectorFactory;
 import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.graph.Exclusion;
 import org.eclipse.aether.impl.DefaultServiceLocator;
 import org.eclipse.aether.internal.impl.DefaultRemoteRepositoryManager;
 import org.eclipse.aether.repository.LocalRepository;
 import org.eclipse.aether.repository.RemoteRepository;
-import org.eclipse.aether.resolution.DependencyRequest;
-import org.eclipse.aether.resolution.DependencyResolutionException;
 import org.eclipse.aether.spi.connector.RepositoryConnectorFactory;
 import org.eclipse.aether.spi.connector.transport.TransporterFactory;
 import org.eclipse.aether.transport.file.FileTransporterFactory;
@@ -31,9 +33,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 class MavenConfiguration {
@@ -41,31 +47,38 @@ class MavenConfiguration {
     private static final Logger LOGGER = LoggerFactory.getLogger(MavenConfiguration.class);
 
     /**
-     * Model builder factory used to produce Maven projects
+     * Expected heap footprint of single model build or dependency resolution in progress (effective model,
+     * dependency graph), used to limit number of concurrent workers
      */
-    private static DefaultModelBuilderFactory modelBuilderFactory = new DefaultModelBuilderFactory();
+    private static final long MAVEN_WORKER_MEMORY = 32L * 1024 * 1024;
 
     /**
-     * Maven repository system
+     * System property that overrides location of local Maven repository
      */
-    private static RepositorySystem repositorySystem;
+    static final String LOCAL_REPOSITORY_PROPERTY = "maven.repo.local";
+
+    private static final String IMPORT_SCOPE = "import";
+    private static final String POM_TYPE = "pom";
 
     /**
-     * Maven repository system session
+     * Model builder used to produce Maven projects, it keeps no per-build state and thus is shared between threads
      */
-    private static RepositorySystemSession repositorySystemSession;
+    private static ModelBuilder modelBuilder = new DefaultModelBuilderFactory().newInstance();
 
-    static {
-        // initializing repository system and session
-        initRepositorySystem();
-    }
+    /**
+     * Resolved POMs, version ranges and raw models shared by all model builds, runs keep SNAPSHOTs and version
+     * ranges in their own caches
+     */
+    private static MavenModelCache modelCache = new MavenModelCache();
 
     /**
-     * Initializes Maven repository system and session
+     * Maven repository system
      */
-    private static void initRepositorySystem() {
+    private static RepositorySystem repositorySystem;
+
+    static {
+        // initializing repository system
         repositorySystem = newRepositorySystem();
-        repositorySystemSession = newRepositorySystemSession(repositorySystem);
     }
 
     /**
@@ -73,7 +86,7 @@ class MavenConfiguration {
      *
      * @return repository system
      */
-    private static RepositorySystem newRepositorySystem() {
+    static RepositorySystem newRepositorySystem() {
         DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
         locator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
         locator.addService(TransporterFactory.class, FileTransporterFactory.class);
@@ -92,296 +105,642 @@ class MavenConfiguration {
     /**
      * Initializes repository system session
      *
-     * @param system repository system to use
+     * @param system  repository system to use
+     * @param offline if true, remote repositories are never contacted and artifacts are resolved from the local
+     *                repository only
      * @return repository system session
      */
-    private static RepositorySystemSession newRepositorySystemSession(RepositorySystem system) {
+    private static DefaultRepositorySystemSession newRepositorySystemSession(RepositorySystem system,
+                                                                             boolean offline) {
         DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
-        LocalRepository localRepo =
-                new LocalRepository(org.apache.maven.repository.RepositorySystem.defaultUserLocalRepository);
+        // local repository location can be overridden the same way Maven does it
+        File localRepoDir = new File(System.getProperty(LOCAL_REPOSITORY_PROPERTY,
+                org.apache.maven.repository.RepositorySystem.defaultUserLocalRepository.getPath()));
+        LocalRepository localRepo;
+        if (offline) {
+            // "simple" layout accepts any file found in local repository no matter which remote repository
+            // it was originally fetched from, enhanced one would treat such files as missing
+            localRepo = new LocalRepository(localRepoDir, "simple");
+        } else {
+            localRepo = new LocalRepository(localRepoDir);
+        }
         session.setLocalRepositoryManager(system.newLocalRepositoryManager(session, localRepo));
+        session.setOffline(offline);
+        // repository system's cache keeps version range results and artifact descriptors, including SNAPSHOT ones,
+        // so it lives as long as the run does
+        session.setCache(new DefaultRepositoryCache());
         return session;
     }
 
-    static boolean prepare(Path path) {
+    static boolean prepare(Path path,
+                           WorkspaceIndex index,
+                           WorkspaceCache cache,
+                           ConfigurationWriter writer,
+                           PrepareCommand options) {
         LOGGER.info("Scanning for Maven project descriptors in {}", path);
-        Collection<Path> descriptors = getDescriptors(path);
-        Map<String, MavenProject> idToProjectMap = new HashMap<>();
-        Map<Path, MavenProject> pathToProjectMap = new HashMap<>();
+        Collection<Path> descriptors = index.getMavenDescriptors();
+        Map<String, MavenModuleSummary> idToProjectMap = new HashMap<>();
+        Map<Path, MavenModuleSummary> pathToProjectMap = new HashMap<>();
         Collection<Repository> repositories = new HashSet<>();
 
+        // projects from the same workspace are resolved from local files instead of remote repositories
+        MavenWorkspaceReader workspaceReader = new MavenWorkspaceReader(descriptors);
+        DefaultRepositorySystemSession session = newRepositorySystemSession(repositorySystem, options.offline);
+        if (options.offline) {
+            LOGGER.info("Offline mode, resolving Maven artifacts from local repository only");
+        }
+        session.setWorkspaceReader(workspaceReader);
+        MavenModelCache runModelCache = new MavenModelCache(modelCache);
+        ModelCache workspaceModelCache = runModelCache.forWorkspace(workspaceReader);
+
+        // watch mode: skeletons tell which projects are needed to update affected ones, effective models are
+        // built for them only
+        Collection<Path> modelDescriptors = descriptors;
+        if (options.changedDescriptors != null) {
+            modelDescriptors = getRequiredDescriptors(descriptors, options.changedDescriptors, workspaceReader);
+        }
+
         // makings maps of group/artifactid -> maven project and pom.xml -> maven project.
         // first one will be used to find sub-project dependencies,
-        // the second one to associate pom.xml's directory with the javac config built
-        for (Path descriptor : descriptors) {
-            LOGGER.info("Parsing {}", descriptor);
-            try {
-                MavenProject project = getMavenProject(descriptor);
-                idToProjectMap.put(project.getGroupId() + '/' + project.getArtifactId(), project);
-                pathToProjectMap.put(descriptor.toAbsolutePath().normalize(), project);
-                repositories.addAll(project.getRepositories());
-            } catch (ModelBuildingException e) {
-                LOGGER.warn("Cannot parse Maven project descriptor {}", path, e);
+        // the second one to associate pom.xml's directory with the javac config built.
+        // Models are built concurrently, maps are filled in descriptors order to keep results stable.
+        // Each model is reduced to summary as soon as it's built, so that only models being built occupy heap
+        Map<Path, Future<MavenModuleSummary>> projects = new LinkedHashMap<>();
+        ExecutorService executor = options.pools.getMavenPool();
+        try {
+            for (Path descriptor : modelDescriptors) {
+                projects.put(descriptor, executor.submit(() -> {
+                    LOGGER.info("Parsing {}", descriptor);
+                    return getModuleSummary(descriptor, session, workspaceModelCache, runModelCache);
+                }));
+            }
+            for (Map.Entry<Path, Future<MavenModuleSummary>> entry : projects.entrySet()) {
+                Path descriptor = entry.getKey();
+                try {
+                    MavenModuleSummary project = entry.getValue().get();
+                    idToProjectMap.put(project.id(), project);
+                    pathToProjectMap.put(descriptor.toAbsolutePath().normalize(), project);
+                    repositories.addAll(project.repositories);
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof ModelBuildingException)) {
+                        throw new IllegalStateException("Unable to build Maven project " + descriptor, e.getCause());
+                    }
+                    LOGGER.warn("Cannot parse Maven project descriptor {}", descriptor, e.getCause());
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building Maven projects", e);
+        } finally {
+            WorkerPools.cancel(projects.values());
         }
 
+        // workspace projects graphs, transitive closures are computed once per project
+        ModuleGraph<String> dependencyGraph = getDependencyGraph(idToProjectMap, pathToProjectMap);
+        ModuleGraph<String> moduleGraph = getModuleGraph(pathToProjectMap);
+
+        // watch mode: only projects affected by changed descriptors are processed again
+        Set<Path> affected = null;
+        if (options.changedDescriptors != null) {
+            affected = getAffectedDescriptors(options.changedDescriptors,
+                    pathToProjectMap,
+                    dependencyGraph,
+                    moduleGraph);
+            LOGGER.info("Updating {} of {} Maven project(s)", affected.size(), pathToProjectMap.size());
+        }
 
-        for (Map.Entry<Path, MavenProject> entry : pathToProjectMap.entrySet()) {
-            LOGGER.info("Processing {}", entry.getKey());
-            MavenProject project = entry.getValue();
-            LanguageServerConfiguration configuration = new LanguageServerConfiguration();
-            configuration.sources = collectSourcePath(project, idToProjectMap);
-            configuration.outputDirectory = project.getBuild().getOutputDirectory();
-            // will fetch external dependencies only
-            Collection<Dependency> externalDependencies = collectDependencies(project,
-                    idToProjectMap,
-                    pathToProjectMap).
-                    stream().
-                    filter(dep ->
-                            !idToProjectMap.containsKey(dep.getGroupId() + '/' + dep.getArtifactId())).
-                    collect(Collectors.toList());
-            LOGGER.info("Fetching artifacts");
-            Collection<Artifact> resolvedArtifacts = resolveDependencyArtifacts(externalDependencies,
-                    repositories,
-                    "jar");
-            LOGGER.info("Fetched artifacts");
-            List<String> classPath = new LinkedList<>();
-            for (Artifact artifact : resolvedArtifacts) {
-                File file = artifact.getFile();
-                if (file != null) {
-                    classPath.add(file.getAbsolutePath());
+        // classpath of module is resolved again only if its external dependencies or repositories have changed
+        MavenClasspathCache classpathCache = new MavenClasspathCache(cache);
+        String repositoriesFingerprint = repositories.stream().
+                map(repository -> repository.getId() + '=' + repository.getUrl()).
+                sorted().
+                collect(Collectors.joining(",")) + ';' + options.sharedDependencyGraph;
+
+        // modules are processed concurrently: dependency graphs are collected by module workers, artifacts are
+        // fetched by download workers, each artifact is fetched once no matter how many modules refer to it
+        Map<Path, Future<?>> tasks = new LinkedHashMap<>();
+        try (MavenArtifactDownloader downloader = new MavenArtifactDownloader(repositorySystem,
+                session,
+                options.pools.getDownloadPool(),
+                options.pools.getRepositoryLimiter())) {
+            // POMs and metadata fetched during collection count against the same per-repository limit as
+            // artifacts
+            RepositorySystemSession collectSession = downloader.getSession();
+            // shared dependency graph mode: every unique dependency subgraph is collected once per workspace
+            MavenDependencyResolver dependencyResolver = null;
+            if (options.sharedDependencyGraph) {
+                dependencyResolver = new MavenDependencyResolver(repositorySystem,
+                        collectSession,
+                        toRemoteRepositories(repositories));
+            }
+            for (Map.Entry<Path, MavenModuleSummary> entry : pathToProjectMap.entrySet()) {
+                if (affected != null && !affected.contains(entry.getKey())) {
+                    continue;
+                }
+                MavenDependencyResolver resolver = dependencyResolver;
+                tasks.put(entry.getKey(), executor.submit(() -> processProject(entry.getKey(),
+                        entry.getValue(),
+                        idToProjectMap,
+                        dependencyGraph,
+                        moduleGraph,
+                        repositories,
+                        collectSession,
+                        resolver,
+                        downloader,
+                        classpathCache,
+                        repositoriesFingerprint,
+                        writer)));
+            }
+            for (Map.Entry<Path, Future<?>> entry : tasks.entrySet()) {
+                try {
+                    entry.getValue().get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Unable to process Maven project " + entry.getKey(), e.getCause());
                 }
             }
-            configuration.classPath = classPath;
-            configuration.write(path, entry.getKey().getParent().resolve(".jls-config"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing Maven projects", e);
+        } finally {
+            WorkerPools.cancel(tasks.values());
         }
+        classpathCache.save(options.changedDescriptors != null);
 
         return !pathToProjectMap.isEmpty();
     }
 
     /**
-     * Collects source path from project and its local dependencies (local dependency is when Maven project A refers to
-     * Maven project B from the same workspace)
+     * Budget is not enforced, it only limits number of concurrent workers. Expected footprint of process-wide model
+     * cache, which is bounded by number of entries and outlives workers, is reserved from it
      *
-     * @param project        project to collect dependencies for
-     * @param idToProjectMap map of group/artifactid -> maven project
-     * @return list of source path from project and its local dependencies
+     * @param threads requested number of workers
+     * @param budget  heap budget (MB), 0 to use half of max heap
+     * @return number of workers that fit into heap budget, at least one
      */
-    private static Collection<String> collectSourcePath(MavenProject project, Map<String, MavenProject> idToProjectMap) {
-        Collection<String> ret = new LinkedList<>();
-        collectSourcePath(project, idToProjectMap, ret, new HashSet<>());
+    static int getPoolSize(int threads, long budget) {
+        long bytes = (budget > 0 ? budget * 1024 * 1024 : Runtime.getRuntime().maxMemory() / 2) -
+                MavenModelCache.MAX_MEMORY;
+        int ret = (int) Math.max(1, Math.min(Math.max(threads, 1), bytes / MAVEN_WORKER_MEMORY));
+        LOGGER.debug("Running up to {} Maven worker(s) concurrently", ret);
         return ret;
     }
 
     /**
-     * Collects source path from project and its local dependencies (local dependency is when Maven project A refers to
-     * Maven project B from the same workspace)
+     * @param skeleton project skeleton
+     * @param ids      map of group/artifactid -> workspace project skeleton
+     * @return group/artifactid of dependencies declared by project and its workspace parents
+     */
+    private static Collection<String> getInheritedDependencies(MavenPomSkeleton skeleton,
+                                                               Map<String, MavenPomSkeleton> ids) {
+        Collection<String> ret = new LinkedHashSet<>(skeleton.dependencies);
+        Set<String> visited = new HashSet<>();
+        visited.add(skeleton.id());
+        for (MavenPomSkeleton parent = ids.get(skeleton.parentId());
+             parent != null && visited.add(parent.id());
+             parent = ids.get(parent.parentId())) {
+            ret.addAll(parent.dependencies);
+        }
+        return ret;
+    }
+
+    /**
+     * Plans incremental run using project skeletons
      *
-     * @param project        project to collect dependencies for
-     * @param idToProjectMap map of group/artifactid -> maven project
-     * @param ret            target set
-     * @param visited        tracks visited projects to avoid loops
+     * @param descriptors     pom.xml files
+     * @param changed         changed descriptors
+     * @param workspaceReader workspace reader that holds project skeletons
+     * @return descriptors of projects affected by changes and projects their configurations are computed from, all
+     * the descriptors if it cannot be determined statically
      */
-    private static void collectSourcePath(MavenProject project,
-                                          Map<String, MavenProject> idToProjectMap,
-                                          Collection<String> ret,
-                                          Set<String> visited) {
-        String id = project.getGroupId() + '/' + project.getArtifactId();
-        if (!visited.add(id)) {
-            return;
+    private static Collection<Path> getRequiredDescriptors(Collection<Path> descriptors,
+                                                           Collection<Path> changed,
+                                                           MavenWorkspaceReader workspaceReader) {
+        Map<Path, MavenPomSkeleton> skeletons = new HashMap<>();
+        Map<String, MavenPomSkeleton> ids = new HashMap<>();
+        for (Path descriptor : descriptors) {
+            MavenPomSkeleton skeleton = workspaceReader.getSkeleton(descriptor);
+            if (skeleton == null || skeleton.incomplete) {
+                LOGGER.debug("Cannot plan Maven projects statically because of {}", descriptor);
+                return descriptors;
+            }
+            skeletons.put(descriptor.toAbsolutePath().normalize(), skeleton);
+            ids.putIfAbsent(skeleton.id(), skeleton);
         }
-        // extract project's source roots
-        collectSourceRoots(project, ret);
-        for (Dependency dependency : project.getDependencies()) {
-            id = dependency.getGroupId() + '/' + dependency.getArtifactId();
-            MavenProject dep = idToProjectMap.get(id);
-            if (dep != null) {
-                // extract project's local dependency source roots
-                collectSourcePath(dep, idToProjectMap, ret, visited);
+
+        // the same relations as effective models produce, see getDependencyGraph(), getModuleGraph() and
+        // getAffectedDescriptors()
+        ModuleGraph<String> dependencyGraph = new ModuleGraph<>();
+        ModuleGraph<String> moduleGraph = new ModuleGraph<>();
+        ModuleGraph<String> usageGraph = new ModuleGraph<>();
+        for (MavenPomSkeleton skeleton : skeletons.values()) {
+            String id = skeleton.id();
+            dependencyGraph.addModule(id);
+            moduleGraph.addModule(id);
+            usageGraph.addModule(id);
+            String parentId = skeleton.parentId();
+            if (parentId != null && ids.containsKey(parentId)) {
+                usageGraph.addDependency(id, parentId);
+            }
+            // effective model inherits dependencies of workspace parents
+            for (String dependency : getInheritedDependencies(skeleton, ids)) {
+                if (ids.containsKey(dependency)) {
+                    dependencyGraph.addDependency(id, dependency);
+                    usageGraph.addDependency(id, dependency);
+                }
+            }
+            for (String bom : skeleton.imports) {
+                if (ids.containsKey(bom)) {
+                    usageGraph.addDependency(id, bom);
+                }
+            }
+            for (String module : skeleton.modules) {
+                MavenPomSkeleton moduleSkeleton = skeletons.get(skeleton.directory.resolve(module).
+                        resolve("pom.xml").
+                        normalize());
+                if (moduleSkeleton != null) {
+                    moduleGraph.addDependency(id, moduleSkeleton.id());
+                    usageGraph.addDependency(id, moduleSkeleton.id());
+                }
+            }
+        }
+
+        Collection<String> changedIds = new LinkedList<>();
+        for (Path descriptor : changed) {
+            MavenPomSkeleton skeleton = skeletons.get(descriptor.toAbsolutePath().normalize());
+            if (skeleton == null) {
+                // removed project, its dependents are unknown
+                return descriptors;
+            }
+            changedIds.add(skeleton.id());
+        }
+        // repositories are collected from all workspace projects, projects that declare them or may inherit them
+        // from external parents are always needed
+        Set<String> required = skeletons.values().stream().
+                filter(skeleton -> skeleton.repositories ||
+                        (skeleton.parentId() != null && !ids.containsKey(skeleton.parentId()))).
+                map(MavenPomSkeleton::id).
+                collect(Collectors.toSet());
+        for (String id : usageGraph.getAffected(changedIds)) {
+            // aggregator's configuration is computed from its modules and their dependencies, workspace projects
+            // among them should be known to tell them from external ones
+            for (String module : moduleGraph.getClosure(id)) {
+                required.addAll(dependencyGraph.getClosure(module));
             }
         }
+        List<Path> ret = descriptors.stream().
+                filter(descriptor -> required.contains(skeletons.get(descriptor.toAbsolutePath().normalize()).id())).
+                collect(Collectors.toList());
+        LOGGER.info("Building {} of {} Maven project model(s)", ret.size(), descriptors.size());
+        return ret;
     }
 
     /**
-     * Collects project's source roots
+     * Builds graph of dependencies between workspace projects
      *
-     * @param project Maven project
-     * @param ret     target collection to fill
+     * @param idToProjectMap   map of group/artifactid -> maven project
+     * @param pathToProjectMap map of pom.xml -> maven project
+     * @return graph (group/artifactid -> group/artifactid of workspace projects it depends on)
      */
-    private static void collectSourceRoots(MavenProject project, Collection<String> ret) {
-        Path root = project.getModel().getPomFile().getParentFile().toPath();
-        for (String sourceRoot : project.getCompileSourceRoots()) {
-            File f = concat(root, sourceRoot).toFile();
-            if (f.isDirectory()) {
-                ret.add(f.toString());
+    private static ModuleGraph<String> getDependencyGraph(Map<String, MavenModuleSummary> idToProjectMap,
+                                                          Map<Path, MavenModuleSummary> pathToProjectMap) {
+        ModuleGraph<String> ret = new ModuleGraph<>();
+        for (MavenModuleSummary project : pathToProjectMap.values()) {
+            String id = project.id();
+            ret.addModule(id);
+            for (Dependency dependency : project.dependencies) {
+                String dependencyId = dependency.getGroupId() + '/' + dependency.getArtifactId();
+                if (idToProjectMap.containsKey(dependencyId)) {
+                    ret.addDependency(id, dependencyId);
+                }
             }
         }
-        for (String sourceRoot : project.getTestCompileSourceRoots()) {
-            File f = concat(root, sourceRoot).toFile();
-            if (f.isDirectory()) {
-                ret.add(f.toString());
+        return ret;
+    }
+
+    /**
+     * Builds graph of aggregation between workspace projects
+     *
+     * @param pathToProjectMap map of pom.xml -> maven project
+     * @return graph (group/artifactid -> group/artifactid of project's modules)
+     */
+    private static ModuleGraph<String> getModuleGraph(Map<Path, MavenModuleSummary> pathToProjectMap) {
+        ModuleGraph<String> ret = new ModuleGraph<>();
+        for (MavenModuleSummary project : pathToProjectMap.values()) {
+            String id = project.id();
+            ret.addModule(id);
+            for (String module : project.modules) {
+                Path modulePomFile = project.directory.resolve(module).resolve("pom.xml").normalize();
+                MavenModuleSummary moduleProject = pathToProjectMap.get(modulePomFile);
+                if (moduleProject != null) {
+                    ret.addDependency(id, moduleProject.id());
+                }
             }
         }
+        return ret;
+    }
 
-        String sourceRoot = project.getBuild().getSourceDirectory();
-        if (sourceRoot == null) {
-            sourceRoot = "src/main";
-        }
-        File f = concat(root, sourceRoot).toFile();
-        if (f.isDirectory()) {
-            ret.add(f.toString());
+    /**
+     * Computes projects which configuration may change because of changed descriptors
+     *
+     * @param changed          changed descriptors
+     * @param pathToProjectMap map of pom.xml -> maven project
+     * @param dependencyGraph  graph of dependencies between workspace projects
+     * @param moduleGraph      graph of aggregation between workspace projects
+     * @return descriptors of changed projects and projects that inherit from, aggregate, import or depend on them
+     * (transitively), all the descriptors if some changed descriptor no longer denotes a project
+     */
+    private static Set<Path> getAffectedDescriptors(Collection<Path> changed,
+                                                    Map<Path, MavenModuleSummary> pathToProjectMap,
+                                                    ModuleGraph<String> dependencyGraph,
+                                                    ModuleGraph<String> moduleGraph) {
+        ModuleGraph<String> usageGraph = new ModuleGraph<>();
+        for (MavenModuleSummary project : pathToProjectMap.values()) {
+            String id = project.id();
+            usageGraph.addModule(id);
+            if (project.parentId != null && dependencyGraph.contains(project.parentId)) {
+                usageGraph.addDependency(id, project.parentId);
+            }
+            for (String dependency : dependencyGraph.getDependencies(id)) {
+                usageGraph.addDependency(id, dependency);
+            }
+            for (String module : moduleGraph.getDependencies(id)) {
+                usageGraph.addDependency(id, module);
+            }
+            // managed versions of imported workspace BOMs
+            for (String bom : project.imports) {
+                if (dependencyGraph.contains(bom)) {
+                    usageGraph.addDependency(id, bom);
+                }
+            }
         }
 
-        sourceRoot = project.getBuild().getTestSourceDirectory();
-        if (sourceRoot == null) {
-            sourceRoot = "src/test";
-        }
-        f = concat(root, sourceRoot).toFile();
-        if (f.isDirectory()) {
-            ret.add(f.toString());
+        Collection<String> changedIds = new LinkedList<>();
+        for (Path descriptor : changed) {
+            MavenModuleSummary project = pathToProjectMap.get(descriptor.toAbsolutePath().normalize());
+            if (project == null) {
+                // removed or broken project, its dependents are unknown
+                return pathToProjectMap.keySet();
+            }
+            changedIds.add(project.id());
         }
+        Set<String> affected = usageGraph.getAffected(changedIds);
+        return pathToProjectMap.entrySet().stream().
+                filter(entry -> affected.contains(entry.getValue().id())).
+                map(Map.Entry::getKey).
+                collect(Collectors.toSet());
     }
 
     /**
-     * Concats (if needed) parent and child paths
+     * Collects project's source path and classpath and writes configuration file
      *
-     * @param parent parent path
-     * @param child  child path
-     * @return concatenated path if child is relative or child if it's absolute
+     * @param descriptor              pom.xml path
+     * @param project                 Maven project
+     * @param idToProjectMap          map of group/artifactid -> maven project
+     * @param dependencyGraph         graph of dependencies between workspace projects
+     * @param moduleGraph             graph of aggregation between workspace projects
+     * @param repositories            list of repositories to use
+     * @param session                 repository system session to use
+     * @param dependencyResolver      shared dependency graph resolver, null if each project's graph should be
+     *                                collected separately
+     * @param downloader              artifact downloader
+     * @param classpathCache          resolved classpaths cache
+     * @param repositoriesFingerprint fingerprint of repositories and resolution settings
+     * @param writer                  configuration writer
      */
-    private static Path concat(Path parent, String child) {
-        Path c = Paths.get(child);
-        if (c.isAbsolute()) {
-            return c;
+    private static void processProject(Path descriptor,
+                                       MavenModuleSummary project,
+                                       Map<String, MavenModuleSummary> idToProjectMap,
+                                       ModuleGraph<String> dependencyGraph,
+                                       ModuleGraph<String> moduleGraph,
+                                       Collection<Repository> repositories,
+                                       RepositorySystemSession session,
+                                       MavenDependencyResolver dependencyResolver,
+                                       MavenArtifactDownloader downloader,
+                                       MavenClasspathCache classpathCache,
+                                       String repositoriesFingerprint,
+                                       ConfigurationWriter writer) {
+        LOGGER.info("Processing {}", descriptor);
+        LanguageServerConfiguration configuration = new LanguageServerConfiguration();
+        configuration.sources = collectSourcePath(project, idToProjectMap, dependencyGraph);
+        configuration.outputDirectory = project.outputDirectory;
+        // will fetch external dependencies only, sorting them to make resolution results stable between runs
+        Map<String, Dependency> externalDependencies = new TreeMap<>();
+        for (Dependency dependency : collectDependencies(project, idToProjectMap, moduleGraph)) {
+            if (!idToProjectMap.containsKey(dependency.getGroupId() + '/' + dependency.getArtifactId())) {
+                externalDependencies.put(key(dependency), dependency);
+            }
+        }
+        String fingerprint = Hashing.sha1().
+                hashString(String.join(",", externalDependencies.keySet()) + ';' + repositoriesFingerprint,
+                        StandardCharsets.UTF_8).
+                toString();
+        // SNAPSHOTs and version ranges may resolve to different artifacts next time, such classpaths are never cached
+        boolean dynamic = externalDependencies.values().stream().
+                anyMatch(dependency -> MavenModelCache.isDynamic(dependency.getVersion()));
+        List<String> classPath = dynamic ? null : classpathCache.get(fingerprint);
+        if (classPath != null) {
+            LOGGER.info("Using cached classpath of {}", descriptor);
+            classPath = writer.intern(classPath);
         } else {
-            return parent.resolve(c);
+            Collection<Artifact> missing = new LinkedList<>();
+            Collection<Artifact> dynamicArtifacts = new LinkedList<>();
+            classPath = resolveClasspath(descriptor,
+                    externalDependencies.values(),
+                    repositories,
+                    session,
+                    dependencyResolver,
+                    downloader,
+                    missing,
+                    dynamicArtifacts);
+            // the same artifacts appear in many classpaths, cached and written classpaths share path instances
+            classPath = writer.intern(classPath);
+            if (!missing.isEmpty()) {
+                // partial classpath is not cached, next run will try to resolve missing artifacts again
+                LOGGER.warn("Failed to resolve {} artifact(s) of {}: {}", missing.size(), descriptor, missing);
+            } else if (dynamic || !dynamicArtifacts.isEmpty()) {
+                LOGGER.debug("Not caching classpath of {} because of SNAPSHOT or version range dependencies",
+                        descriptor);
+            } else {
+                classpathCache.put(fingerprint, classPath);
+            }
         }
+        configuration.classPath = classPath;
+        writer.write(descriptor.getParent(), configuration);
     }
 
     /**
-     * @param path workspace root
-     * @return all pom.xml found
+     * Resolves project's classpath
+     *
+     * @param descriptor           pom.xml path
+     * @param externalDependencies project's external dependencies
+     * @param repositories         list of repositories to use
+     * @param session              repository system session to use
+     * @param dependencyResolver   shared dependency graph resolver, null if project's graph should be collected
+     *                             separately
+     * @param downloader           artifact downloader
+     * @param missing              collection to fill with artifacts that were not resolved
+     * @param dynamic              collection to fill with SNAPSHOT artifacts and artifacts selected from version
+     *                             ranges
+     * @return list of resolved artifact files
      */
-    private static Collection<Path> getDescriptors(Path path) {
-        Collection<Path> descriptors = new LinkedList<>();
+    private static List<String> resolveClasspath(Path descriptor,
+                                                 Collection<Dependency> externalDependencies,
+                                                 Collection<Repository> repositories,
+                                                 RepositorySystemSession session,
+                                                 MavenDependencyResolver dependencyResolver,
+                                                 MavenArtifactDownloader downloader,
+                                                 Collection<Artifact> missing,
+                                                 Collection<Artifact> dynamic) {
+        Collection<DependencyNode> nodes;
         try {
+            if (dependencyResolver != null) {
+                nodes = dependencyResolver.collect(toAetherDependencies(externalDependencies, "jar", session));
+            } else {
+                nodes = collectDependencyNodes(externalDependencies, repositories, "jar", session);
+            }
+        } finally {
+            downloader.releaseHeld();
+        }
+        for (DependencyNode node : nodes) {
+            if (node.getArtifact().isSnapshot() ||
+                    (node.getVersionConstraint() != null && node.getVersionConstraint().getRange() != null)) {
+                dynamic.add(node.getArtifact());
+            }
+        }
+        LOGGER.info("Fetching artifacts of {}", descriptor);
+        List<CompletableFuture<Artifact>> artifacts = nodes.stream().
+                map(downloader::download).
+                collect(Collectors.toList());
+        List<String> classPath = new LinkedList<>();
+        for (CompletableFuture<Artifact> future : artifacts) {
+            Artifact artifact = future.join();
+            File file = artifact.getFile();
+            if (file != null) {
+                classPath.add(file.getAbsolutePath());
+            } else {
+                missing.add(artifact);
+            }
+        }
+        LOGGER.info("Fetched artifacts of {}", descriptor);
+        return classPath;
+    }
 
-            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    String name = file.getFileName().toString();
-                    if (name.equals("pom.xml")) {
-                        descriptors.add(file);
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-            });
-        } catch (IOException e) {
-            LOGGER.warn("Unable to collect Maven project descriptors", e);
+    /**
+     * Collects source path from project and its local dependencies (local dependency is when Maven project A refers to
+     * Maven project B from the same workspace)
+     *
+     * @param project         project to collect dependencies for
+     * @param idToProjectMap  map of group/artifactid -> maven project
+     * @param dependencyGraph graph of dependencies between workspace projects
+     * @return list of source path from project and its local dependencies
+     */
+    private static Collection<String> collectSourcePath(MavenModuleSummary project,
+                                                        Map<String, MavenModuleSummary> idToProjectMap,
+                                                        ModuleGraph<String> dependencyGraph) {
+        Collection<String> ret = new LinkedList<>();
+        String id = project.id();
+        // extract project's source roots
+        ret.addAll(project.sourceRoots);
+        for (String dependency : dependencyGraph.getClosure(id)) {
+            if (!dependency.equals(id)) {
+                // extract project's local dependency source roots
+                ret.addAll(idToProjectMap.get(dependency).sourceRoots);
+            }
         }
-        return descriptors;
+        return ret;
     }
 
     /**
-     * Parses Maven project
+     * Parses Maven project and reduces it to summary, effective model is not retained
      *
      * @param descriptor pom.xml path
-     * @return Maven project object
+     * @param session    repository system session to use
+     * @param cache      raw models cache
+     * @param runCache   resolved POMs and version ranges cache of current run
+     * @return Maven project summary
      * @throws ModelBuildingException
      */
-    private static MavenProject getMavenProject(Path descriptor) throws ModelBuildingException {
+    private static MavenModuleSummary getModuleSummary(Path descriptor,
+                                                       RepositorySystemSession session,
+                                                       ModelCache cache,
+                                                       MavenModelCache runCache)
+            throws ModelBuildingException {
         ModelBuildingRequest request = new DefaultModelBuildingRequest();
         request.setSystemProperties(System.getProperties());
         request.setPomFile(descriptor.toFile());
+        request.setModelCache(cache);
         request.setModelResolver(new MavenModelResolver(new DefaultRemoteRepositoryManager(),
                 repositorySystem,
-                repositorySystemSession));
-        ModelBuildingResult result = modelBuilderFactory.newInstance().build(request);
-        return new MavenProject(result.getEffectiveModel());
+                session,
+                runCache));
+        // imported BOMs are merged into dependency management and dropped by the second phase, they are collected
+        // from inherited and interpolated model the first phase produces
+        request.setTwoPhaseBuilding(true);
+        ModelBuildingResult result = modelBuilder.build(request);
+        List<String> imports = getImports(result.getEffectiveModel());
+        result = modelBuilder.build(request, result);
+        return new MavenModuleSummary(descriptor, result.getEffectiveModel(), imports);
     }
 
     /**
-     * Collects project's dependencies by including project direct dependencies and project module's direct dependencies
-     *
-     * @param project          project to collect dependencies for
-     * @param idToProjectMap   map of group/artifactid -> maven project
-     * @param pathToProjectMap map of pom.xml -> maven project
-     * @return list of dependencies
+     * @param model Maven model before dependency management import
+     * @return group/artifactid of BOMs model imports
      */
-    private static Collection<Dependency> collectDependencies(MavenProject project,
-                                                              Map<String, MavenProject> idToProjectMap,
-                                                              Map<Path, MavenProject> pathToProjectMap) {
-        Collection<Dependency> ret = new HashSet<>();
-        collectDependencies(project, idToProjectMap, pathToProjectMap, ret, new HashSet<>());
-        return ret;
+    private static List<String> getImports(Model model) {
+        DependencyManagement dependencyManagement = model.getDependencyManagement();
+        if (dependencyManagement == null) {
+            return Collections.emptyList();
+        }
+        return dependencyManagement.getDependencies().stream().
+                filter(dependency -> IMPORT_SCOPE.equals(dependency.getScope()) &&
+                        POM_TYPE.equals(dependency.getType())).
+                map(dependency -> dependency.getGroupId() + '/' + dependency.getArtifactId()).
+                collect(Collectors.toList());
     }
 
     /**
      * Collects project's dependencies by including project direct dependencies and project module's direct dependencies
      *
-     * @param project          project to collect dependencies for
-     * @param idToProjectMap   map of group/artifactid -> maven project
-     * @param pathToProjectMap map of pom.xml -> maven project
-     * @param ret              collection to fill
-     * @param visited          tracks visited projects
+     * @param project        project to collect dependencies for
+     * @param idToProjectMap map of group/artifactid -> maven project
+     * @param moduleGraph    graph of aggregation between workspace projects
+     * @return list of dependencies
      */
-    private static void collectDependencies(MavenProject project,
-                                            Map<String, MavenProject> idToProjectMap,
-                                            Map<Path, MavenProject> pathToProjectMap,
-                                            Collection<Dependency> ret,
-                                            Set<String> visited) {
-        String id = project.getGroupId() + '/' + project.getArtifactId();
-        if (!visited.add(id)) {
-            return;
-        }
-
-        ret.addAll(project.getDependencies());
-
-        for (String module : project.getModules()) {
-            Path modulePomFile = Paths.get(project.getModel().getPomFile().getParent(), module, "pom.xml").
-                    toAbsolutePath().
-                    normalize();
-            MavenProject moduleProject = pathToProjectMap.get(modulePomFile);
-            if (moduleProject != null) {
-                collectDependencies(moduleProject, idToProjectMap, pathToProjectMap, ret, visited);
+    private static Collection<Dependency> collectDependencies(MavenModuleSummary project,
+                                                              Map<String, MavenModuleSummary> idToProjectMap,
+                                                              ModuleGraph<String> moduleGraph) {
+        Collection<Dependency> ret = new HashSet<>();
+        String id = project.id();
+        ret.addAll(project.dependencies);
+        for (String module : moduleGraph.getClosure(id)) {
+            if (!module.equals(id)) {
+                ret.addAll(idToProjectMap.get(module).dependencies);
             }
         }
+        return ret;
     }
 
     /**
-     * Fetches dependency artifacts
+     * Collects transitive dependency graph
      *
-     * @param dependencies list of dependencies to fetch
+     * @param dependencies list of dependencies to collect graph for
      * @param repositories list of repositories to use
      * @param extension    artifact extension (jar, pom, ..)
-     * @return list of artifacts fetched
+     * @param session      repository system session to use
+     * @return list of dependency nodes to resolve artifacts of
      */
-    private static Collection<Artifact> resolveDependencyArtifacts(Collection<Dependency> dependencies,
-                                                                   Collection<Repository> repositories,
-                                                                   String extension) {
-
-        Collection<Artifact> ret = new LinkedList<>();
+    private static Collection<DependencyNode> collectDependencyNodes(Collection<Dependency> dependencies,
+                                                                     Collection<Repository> repositories,
+                                                                     String extension,
+                                                                     RepositorySystemSession session) {
 
-        List<org.eclipse.aether.graph.Dependency> deps = new LinkedList<>();
-        ArtifactTypeRegistry artifactTypeRegistry = repositorySystemSession.getArtifactTypeRegistry();
-        for (Dependency dependency : dependencies) {
-            Artifact artifact = new DefaultArtifact(dependency.getGroupId(),
-                    dependency.getArtifactId(),
-                    dependency.getClassifier(),
-                    extension,
-                    dependency.getVersion(),
-                    artifactTypeRegistry.get(dependency.getType()));
-            deps.add(new org.eclipse.aether.graph.Dependency(artifact, dependency.getScope()));
-        }
         CollectRequest collectRequest = new CollectRequest();
-        collectRequest.setDependencies(deps);
-        List<RemoteRepository> repoz = repositories.stream().
-                map(ArtifactDescriptorUtils::toRemoteRepository).collect(Collectors.toList());
-        collectRequest.setRepositories(repoz);
+        collectRequest.setDependencies(toAetherDependencies(dependencies, extension, session));
+        collectRequest.setRepositories(toRemoteRepositories(repositories));
 
         DependencyNode node;
         try {
-            node = repositorySystem.collectDependencies(repositorySystemSession, collectRequest).getRoot();
+            node = repositorySystem.collectDependencies(session, collectRequest).getRoot();
         } catch (DependencyCollectionException e) {
             // TODO
             LOGGER.warn("Failed to collect dependencies - {}", e.getMessage(), e);
@@ -390,23 +749,68 @@ class MavenConfiguration {
         LOGGER.debug("Collected dependencies");
         if (node == null) {
             LOGGER.warn("Failed to collect dependencies - no dependencies were collected");
-            return ret;
-        }
-
-        DependencyRequest projectDependencyRequest = new DependencyRequest(node, null);
-        try {
-            repositorySystem.resolveDependencies(repositorySystemSession, projectDependencyRequest);
-        } catch (DependencyResolutionException e) {
-            LOGGER.warn("Failed to resolve dependencies - {}", e.getMessage());
+            return Collections.emptyList();
         }
 
         PreorderNodeListGenerator nlg = new PreorderNodeListGenerator();
         node.accept(nlg);
 
-        ret.addAll(nlg.getDependencies(true).stream().map(org.eclipse.aether.graph.Dependency::getArtifact).
-                collect(Collectors.toList()));
+        return nlg.getNodes().stream().
+                filter(n -> n.getDependency() != null).
+                collect(Collectors.toList());
+    }
 
-        return ret;
+    /**
+     * Converts Maven dependencies to Aether ones
+     *
+     * @param dependencies Maven dependencies
+     * @param extension    artifact extension (jar, pom, ..)
+     * @param session      repository system session to use
+     * @return Aether dependencies, scopes and exclusions are preserved
+     */
+    private static List<org.eclipse.aether.graph.Dependency> toAetherDependencies(Collection<Dependency> dependencies,
+                                                                                   String extension,
+                                                                                   RepositorySystemSession session) {
+        List<org.eclipse.aether.graph.Dependency> deps = new LinkedList<>();
+        ArtifactTypeRegistry artifactTypeRegistry = session.getArtifactTypeRegistry();
+        for (Dependency dependency : dependencies) {
+            Artifact artifact = new DefaultArtifact(dependency.getGroupId(),
+                    dependency.getArtifactId(),
+                    dependency.getClassifier(),
+                    extension,
+                    dependency.getVersion(),
+                    artifactTypeRegistry.get(dependency.getType()));
+            Collection<Exclusion> exclusions = dependency.getExclusions().stream().
+                    map(exclusion -> new Exclusion(exclusion.getGroupId(), exclusion.getArtifactId(), "*", "*")).
+                    collect(Collectors.toList());
+            deps.add(new org.eclipse.aether.graph.Dependency(artifact, dependency.getScope(), null, exclusions));
+        }
+        return deps;
+    }
+
+    /**
+     * @param dependency Maven dependency
+     * @return key that identifies dependency: coordinates, scope, optional flag and exclusions
+     */
+    private static String key(Dependency dependency) {
+        StringBuilder ret = new StringBuilder(dependency.getManagementKey()).
+                append(':').append(dependency.getVersion()).
+                append(':').append(dependency.getScope()).
+                append(':').append(dependency.isOptional());
+        dependency.getExclusions().stream().
+                map(exclusion -> exclusion.getGroupId() + ':' + exclusion.getArtifactId()).
+                sorted().
+                forEach(exclusion -> ret.append(':').append(exclusion));
+        return ret.toString();
+    }
+
+    /**
+     * @param repositories Maven repositories
+     * @return Aether remote repositories
+     */
+    private static List<RemoteRepository> toRemoteRepositories(Collection<Repository> repositories) {
+        return repositories.stream().
+                map(ArtifactDescriptorUtils::toRemoteRepository).collect(Collectors.toList());
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,150 @@
+package com.sourcegraph.langp;
+
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.collection.CollectRequest;
+import org.eclipse.aether.collection.DependencyCollectionException;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.graph.Exclusion;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects module classpaths from dependency subgraphs shared by all the modules of the workspace.
+ * Transitive graph of every unique dependency (including its scope and exclusions) is collected only once,
+ * module's classpath is assembled from subgraphs of its direct dependencies using "nearest wins" strategy
+ */
+class MavenDependencyResolver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MavenDependencyResolver.class);
+
+    private RepositorySystem repositorySystem;
+    private RepositorySystemSession session;
+    private List<RemoteRepository> repositories;
+
+    /**
+     * dependency key -> collected transitive graph of dependency
+     */
+    private Map<String, CompletableFuture<DependencyNode>> subgraphs = new ConcurrentHashMap<>();
+
+    /**
+     * @param repositorySystem repository system
+     * @param session          repository system session
+     * @param repositories     remote repositories to use
+     */
+    MavenDependencyResolver(RepositorySystem repositorySystem,
+                            RepositorySystemSession session,
+                            List<RemoteRepository> repositories) {
+        this.repositorySystem = repositorySystem;
+        this.session = session;
+        this.repositories = repositories;
+    }
+
+    /**
+     * Collects module's classpath, safe to call from multiple threads
+     *
+     * @param dependencies module's direct external dependencies
+     * @return list of dependency nodes (transitive dependencies included) to resolve artifacts of
+     */
+    Collection<DependencyNode> collect(Collection<Dependency> dependencies) {
+        Collection<DependencyNode> roots = new LinkedList<>();
+        for (Dependency dependency : dependencies) {
+            DependencyNode node = subgraph(dependency);
+            if (node != null) {
+                roots.addAll(node.getChildren());
+            }
+        }
+
+        // breadth-first walk, the first artifact met wins
+        Map<String, DependencyNode> selected = new LinkedHashMap<>();
+        Collection<DependencyNode> level = roots;
+        while (!level.isEmpty()) {
+            Collection<DependencyNode> next = new LinkedList<>();
+            for (DependencyNode node : level) {
+                Dependency dependency = node.getDependency();
+                if (dependency == null) {
+                    continue;
+                }
+                if (selected.putIfAbsent(versionlessKey(dependency.getArtifact()), node) == null) {
+                    next.addAll(node.getChildren());
+                }
+            }
+            level = next;
+        }
+
+        return selected.values();
+    }
+
+    /**
+     * @param dependency dependency to get graph for
+     * @return memoized dependency graph, concurrent requests for the same graph wait for the single collection
+     */
+    private DependencyNode subgraph(Dependency dependency) {
+        String key = key(dependency);
+        CompletableFuture<DependencyNode> ret = subgraphs.get(key);
+        if (ret == null) {
+            CompletableFuture<DependencyNode> future = new CompletableFuture<>();
+            ret = subgraphs.putIfAbsent(key, future);
+            if (ret == null) {
+                ret = future;
+                try {
+                    future.complete(collect(dependency));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        }
+        return ret.join();
+    }
+
+    /**
+     * Collects transitive graph of the given dependency
+     *
+     * @param dependency dependency to collect graph for
+     * @return dependency graph root (with no artifact, the only child is the given dependency) or null if nothing
+     * was collected
+     */
+    private DependencyNode collect(Dependency dependency) {
+        // dependency is not used as a request root, otherwise its own dependency management would be applied
+        CollectRequest collectRequest = new CollectRequest(Collections.singletonList(dependency),
+                null,
+                repositories);
+        try {
+            return repositorySystem.collectDependencies(session, collectRequest).getRoot();
+        } catch (DependencyCollectionException e) {
+            LOGGER.warn("Failed to collect dependencies of {} - {}", dependency, e.getMessage());
+            return e.getResult().getRoot();
+        }
+    }
+
+    /**
+     * @param dependency dependency
+     * @return key that identifies dependency subgraph: coordinates, scope, optional flag and exclusions
+     */
+    private static String key(Dependency dependency) {
+        StringBuilder ret = new StringBuilder(dependency.getArtifact().toString()).
+                append(':').append(dependency.getScope()).
+                append(':').append(dependency.isOptional());
+        dependency.getExclusions().stream().
+                map(Exclusion::toString).
+                sorted().
+                forEach(exclusion -> ret.append(':').append(exclusion));
+        return ret.toString();
+    }
+
+    /**
+     * @param artifact artifact
+     * @return artifact key without version, used to pick one version of each artifact
+     */
+    private static String versionlessKey(Artifact artifact) {
+        return artifact.getGroupId() + ':' + artifact.getArtifactId() + ':' +
+                artifact.getClassifier() + ':' + artifact.getExtension();
+    }
+}
@@ -0,0 +1,190 @@
+package com.sourcegraph.langp;
+
+import com.google.common.cache.CacheBuilder;
+import org.apache.maven.model.building.ModelCache;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of resolved POM files, version range resolution results and parsed raw models (parents and imported BOMs).
+ * Safe for concurrent use.
+ * Process-wide instance keeps stable entries only and evicts least recently used ones when full. Each run works with
+ * its own instance created by {@link #MavenModelCache(MavenModelCache)} that keeps entries which may change between
+ * runs (version ranges, SNAPSHOTs) and delegates the rest to process-wide one.
+ * Data that belongs to workspace projects is never kept here because workspace files may change between runs,
+ * it goes to per-run cache created by {@link #forWorkspace(MavenWorkspaceReader)}
+ */
+class MavenModelCache {
+
+    /**
+     * Max number of POM files and version range results kept by process-wide cache
+     */
+    private static final int MAX_FILES = 10000;
+
+    /**
+     * Max number of raw models kept by process-wide cache
+     */
+    private static final int MAX_MODELS = 2000;
+
+    /**
+     * Expected heap footprint of single raw model
+     */
+    private static final long MODEL_MEMORY = 16L * 1024;
+
+    /**
+     * Expected heap footprint of full process-wide cache, reserved from Maven heap budget
+     */
+    static final long MAX_MEMORY = MAX_MODELS * MODEL_MEMORY;
+
+    /**
+     * Cache to keep stable entries in, null if this is process-wide cache
+     */
+    private MavenModelCache shared;
+
+    /**
+     * groupId:artifactId:version -> POM file in local repository
+     */
+    private Map<String, File> modelFiles = new ConcurrentHashMap<>();
+
+    /**
+     * groupId:artifactId:version range -> highest matching version
+     */
+    private Map<String, String> versions = new ConcurrentHashMap<>();
+
+    /**
+     * groupId:artifactId:version:tag -> model builder data
+     */
+    private Map<String, Object> models = new ConcurrentHashMap<>();
+
+    /**
+     * Makes process-wide cache
+     */
+    MavenModelCache() {
+        modelFiles = newBoundedMap(MAX_FILES);
+        versions = newBoundedMap(MAX_FILES);
+        models = newBoundedMap(MAX_MODELS);
+    }
+
+    /**
+     * Makes per-run cache
+     *
+     * @param shared process-wide cache to keep stable entries in
+     */
+    MavenModelCache(MavenModelCache shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * @param groupId    group ID
+     * @param artifactId artifact ID
+     * @param version    version
+     * @return cached POM file or null
+     */
+    File getModelFile(String groupId, String artifactId, String version) {
+        return target(version).modelFiles.get(key(groupId, artifactId, version));
+    }
+
+    /**
+     * Caches resolved POM file
+     *
+     * @param groupId    group ID
+     * @param artifactId artifact ID
+     * @param version    version
+     * @param file       POM file
+     */
+    void putModelFile(String groupId, String artifactId, String version, File file) {
+        target(version).modelFiles.put(key(groupId, artifactId, version), file);
+    }
+
+    /**
+     * @param groupId    group ID
+     * @param artifactId artifact ID
+     * @param range      version or version range
+     * @return cached highest version matching given range or null
+     */
+    String getVersion(String groupId, String artifactId, String range) {
+        return target(range).versions.get(key(groupId, artifactId, range));
+    }
+
+    /**
+     * Caches version range resolution result
+     *
+     * @param groupId    group ID
+     * @param artifactId artifact ID
+     * @param range      version or version range
+     * @param version    highest version matching given range
+     */
+    void putVersion(String groupId, String artifactId, String range, String version) {
+        target(range).versions.put(key(groupId, artifactId, range), version);
+    }
+
+    /**
+     * @param reader workspace reader used to tell workspace projects from external ones
+     * @return model cache to pass to model builder, keeps workspace models in a separate per-run map
+     */
+    ModelCache forWorkspace(MavenWorkspaceReader reader) {
+        Map<String, Object> workspaceModels = new ConcurrentHashMap<>();
+        return new ModelCache() {
+            @Override
+            public void put(String groupId, String artifactId, String version, String tag, Object data) {
+                if (data == null) {
+                    return;
+                }
+                target(groupId, artifactId, version).put(key(groupId, artifactId, version) + ':' + tag, data);
+            }
+
+            @Override
+            public Object get(String groupId, String artifactId, String version, String tag) {
+                return target(groupId, artifactId, version).get(key(groupId, artifactId, version) + ':' + tag);
+            }
+
+            private Map<String, Object> target(String groupId, String artifactId, String version) {
+                if (reader.findDescriptor(groupId, artifactId, version) != null) {
+                    return workspaceModels;
+                }
+                return MavenModelCache.this.target(version).models;
+            }
+        };
+    }
+
+    /**
+     * @param version version or version range
+     * @return cache to keep entries of given version in: this one if version may resolve differently next time,
+     * process-wide one otherwise
+     */
+    private MavenModelCache target(String version) {
+        if (shared == null || isDynamic(version)) {
+            return this;
+        }
+        return shared;
+    }
+
+    /**
+     * @param version version or version range
+     * @return true if version is a SNAPSHOT or a range
+     */
+    static boolean isDynamic(String version) {
+        return version == null ||
+                version.endsWith("SNAPSHOT") ||
+                version.startsWith("[") ||
+                version.startsWith("(") ||
+                version.contains(",");
+    }
+
+    /**
+     * @param size max number of entries
+     * @return concurrent map that evicts least recently used entries when full
+     */
+    private static <V> Map<String, V> newBoundedMap(int size) {
+        return CacheBuilder.newBuilder().
+                maximumSize(size).
+                <String, V>build().
+                asMap();
+    }
+
+    private static String key(String groupId, String artifactId, String version) {
+        return groupId + ':' + artifactId + ':' + version;
+    }
+}
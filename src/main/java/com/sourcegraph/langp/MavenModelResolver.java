@@ -15,8 +15,10 @@ import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.impl.RemoteRepositoryManager;
 import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.repository.WorkspaceReader;
 import org.eclipse.aether.resolution.*;
 
+import java.io.File;
 import java.util.*;
 
 /**
@@ -35,12 +37,16 @@ class MavenModelResolver implements ModelResolver {
 
     private RemoteRepositoryManager remoteRepositoryManager;
 
+    private MavenModelCache modelCache;
+
     MavenModelResolver(RemoteRepositoryManager remoteRepositoryManager,
                        RepositorySystem repositorySystem,
-                       RepositorySystemSession repositorySystemSession) {
+                       RepositorySystemSession repositorySystemSession,
+                       MavenModelCache modelCache) {
         this.repositorySystem = repositorySystem;
         this.repositorySystemSession = repositorySystemSession;
         this.remoteRepositoryManager = remoteRepositoryManager;
+        this.modelCache = modelCache;
         repositoryKeys = new HashSet<>();
         repositories = new LinkedList<>();
 
@@ -55,6 +61,7 @@ class MavenModelResolver implements ModelResolver {
         this.repositorySystem = source.repositorySystem;
         this.repositorySystemSession = source.repositorySystemSession;
         this.remoteRepositoryManager = source.remoteRepositoryManager;
+        this.modelCache = source.modelCache;
         this.repositories = new LinkedList<>(source.repositories);
         this.repositoryKeys = new HashSet<>(source.repositoryKeys);
     }
@@ -66,12 +73,23 @@ class MavenModelResolver implements ModelResolver {
 
         Artifact pomArtifact = new DefaultArtifact(groupId, artifactId, StringUtils.EMPTY, POM, version);
 
+        File workspaceFile = findInWorkspace(pomArtifact);
+        if (workspaceFile != null) {
+            return new FileModelSource(workspaceFile);
+        }
+
+        File file = modelCache.getModelFile(groupId, artifactId, version);
+        if (file != null && file.isFile()) {
+            return new FileModelSource(file);
+        }
+
         try {
             ArtifactRequest request = new ArtifactRequest(pomArtifact, repositories, null);
             pomArtifact = repositorySystem.resolveArtifact(repositorySystemSession, request).getArtifact();
         } catch (ArtifactResolutionException e) {
             throw new UnresolvableModelException(e.getMessage(), groupId, artifactId, version, e);
         }
+        modelCache.putModelFile(groupId, artifactId, version, pomArtifact.getFile());
         return new FileModelSource(pomArtifact.getFile());
     }
 
@@ -84,12 +102,30 @@ class MavenModelResolver implements ModelResolver {
                 POM,
                 parent.getVersion());
 
+        // parent may be a sibling project which is not on the relative path
+        File workspaceFile = findInWorkspace(artifact);
+        if (workspaceFile != null) {
+            return new FileModelSource(workspaceFile);
+        }
+
+        String version = modelCache.getVersion(parent.getGroupId(), parent.getArtifactId(), parent.getVersion());
+        if (version != null) {
+            parent.setVersion(version);
+            return resolveModel(parent.getGroupId(), parent.getArtifactId(), version);
+        }
+
         VersionRangeRequest versionRangeRequest = new VersionRangeRequest(artifact, repositories, null);
 
         try {
             VersionRangeResult versionRangeResult = repositorySystem.resolveVersionRange(repositorySystemSession,
                     versionRangeRequest);
-            parent.setVersion(versionRangeResult.getHighestVersion().toString());
+            if (versionRangeResult.getHighestVersion() == null) {
+                throw new UnresolvableModelException("No versions matched the requested parent version range " +
+                        parent.getVersion(), parent.getGroupId(), parent.getArtifactId(), parent.getVersion());
+            }
+            version = versionRangeResult.getHighestVersion().toString();
+            modelCache.putVersion(parent.getGroupId(), parent.getArtifactId(), parent.getVersion(), version);
+            parent.setVersion(version);
         } catch (VersionRangeResolutionException e) {
             throw new UnresolvableModelException(e.getMessage(), parent.getGroupId(), parent.getArtifactId(),
                     parent.getVersion(), e);
@@ -125,6 +161,18 @@ class MavenModelResolver implements ModelResolver {
         repositoryKeys.add(id);
     }
 
+    /**
+     * @param artifact POM artifact
+     * @return matching POM file from the workspace or null
+     */
+    private File findInWorkspace(Artifact artifact) {
+        WorkspaceReader workspaceReader = repositorySystemSession.getWorkspaceReader();
+        if (workspaceReader == null) {
+            return null;
+        }
+        return workspaceReader.findArtifact(artifact);
+    }
+
     @Override
     public ModelResolver newCopy() {
         return new MavenModelResolver(this);
@@ -0,0 +1,118 @@
+package com.sourcegraph.langp;
+
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.Repository;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Compact summary of Maven project: everything that is needed to compute module's configuration. Summary is made
+ * right after effective model is built, so that model and objects it refers to can be released
+ */
+class MavenModuleSummary {
+
+    String groupId;
+    String artifactId;
+
+    /**
+     * Directory containing pom.xml
+     */
+    Path directory;
+
+    /**
+     * group/artifactid of parent project, null if there is no parent
+     */
+    String parentId;
+
+    /**
+     * Existing source roots
+     */
+    Collection<String> sourceRoots = new LinkedList<>();
+
+    String outputDirectory;
+
+    List<Dependency> dependencies;
+
+    List<String> modules;
+
+    List<Repository> repositories;
+
+    /**
+     * group/artifactid of BOMs imported by project or its parents
+     */
+    List<String> imports;
+
+    /**
+     * @param descriptor pom.xml path
+     * @param model      effective model
+     * @param imports    group/artifactid of imported BOMs, effective model no longer lists them
+     */
+    MavenModuleSummary(Path descriptor, Model model, List<String> imports) {
+        groupId = model.getGroupId();
+        artifactId = model.getArtifactId();
+        directory = descriptor.toAbsolutePath().normalize().getParent();
+        Parent parent = model.getParent();
+        if (parent != null) {
+            parentId = parent.getGroupId() + '/' + parent.getArtifactId();
+        }
+        Build build = model.getBuild();
+        if (build == null) {
+            build = new Build();
+        }
+        collectSourceRoot(build.getSourceDirectory(), "src/main");
+        collectSourceRoot(build.getTestSourceDirectory(), "src/test");
+        outputDirectory = build.getOutputDirectory();
+        dependencies = new ArrayList<>(model.getDependencies());
+        modules = new ArrayList<>(model.getModules());
+        repositories = new ArrayList<>(model.getRepositories());
+        this.imports = imports;
+    }
+
+    /**
+     * @return group/artifactid
+     */
+    String id() {
+        return groupId + '/' + artifactId;
+    }
+
+    /**
+     * Adds source root if it exists
+     *
+     * @param sourceRoot   source root declared by project, may be null
+     * @param defaultValue source root to use if project does not declare one
+     */
+    private void collectSourceRoot(String sourceRoot, String defaultValue) {
+        if (sourceRoot == null) {
+            sourceRoot = defaultValue;
+        }
+        File f = concat(directory, sourceRoot).toFile();
+        if (f.isDirectory()) {
+            sourceRoots.add(f.toString());
+        }
+    }
+
+    /**
+     * Concats (if needed) parent and child paths
+     *
+     * @param parent parent path
+     * @param child  child path
+     * @return concatenated path if child is relative or child if it's absolute
+     */
+    private static Path concat(Path parent, String child) {
+        Path c = Paths.get(child);
+        if (c.isAbsolute()) {
+            return c;
+        } else {
+            return parent.resolve(c);
+        }
+    }
+}
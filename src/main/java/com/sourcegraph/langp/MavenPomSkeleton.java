@@ -0,0 +1,281 @@
+package com.sourcegraph.langp;
+
+import org.apache.commons.lang3.StringUtils;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Coordinates, parent, modules, direct dependencies and imported BOMs of Maven project read straight from pom.xml, without
+ * inheritance, interpolation and imports. Good enough to plan which effective models have to be built.
+ * Descriptor is read into memory at once and parsed with streaming parser. File is not memory-mapped, mapping
+ * would keep pom.xml locked on Windows until buffer is garbage collected
+ */
+class MavenPomSkeleton {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    /**
+     * Element paths (relative to project element) of values to collect
+     */
+    private static final String GROUP_ID = "groupId";
+    private static final String ARTIFACT_ID = "artifactId";
+    private static final String VERSION = "version";
+    private static final String PARENT_GROUP_ID = "parent/groupId";
+    private static final String PARENT_ARTIFACT_ID = "parent/artifactId";
+    private static final String PARENT_VERSION = "parent/version";
+    private static final String MODULE = "modules/module";
+    private static final String DEPENDENCY = "dependencies/dependency";
+    private static final String DEPENDENCY_GROUP_ID = "dependencies/dependency/groupId";
+    private static final String DEPENDENCY_ARTIFACT_ID = "dependencies/dependency/artifactId";
+    private static final String MANAGED_DEPENDENCY = "dependencyManagement/dependencies/dependency";
+    private static final String MANAGED_DEPENDENCY_GROUP_ID = "dependencyManagement/dependencies/dependency/groupId";
+    private static final String MANAGED_DEPENDENCY_ARTIFACT_ID =
+            "dependencyManagement/dependencies/dependency/artifactId";
+    private static final String MANAGED_DEPENDENCY_SCOPE = "dependencyManagement/dependencies/dependency/scope";
+    private static final String IMPORT_SCOPE = "import";
+    private static final String PROFILES = "profiles";
+    private static final String REPOSITORIES = "repositories";
+
+    String groupId;
+    String artifactId;
+    String version;
+
+    String parentGroupId;
+    String parentArtifactId;
+    String parentVersion;
+
+    /**
+     * Directory containing pom.xml
+     */
+    Path directory;
+
+    List<String> modules = new LinkedList<>();
+
+    /**
+     * group/artifactid of direct dependencies
+     */
+    List<String> dependencies = new LinkedList<>();
+
+    /**
+     * group/artifactid of BOMs imported in dependency management
+     */
+    List<String> imports = new LinkedList<>();
+
+    /**
+     * Set if project declares repositories
+     */
+    boolean repositories;
+
+    /**
+     * Set if modules or dependencies may differ in effective model: some of them refer to properties other than
+     * project's own coordinates or profiles are declared
+     */
+    boolean incomplete;
+
+    /**
+     * Reads pom.xml
+     *
+     * @param descriptor pom.xml path
+     * @return project skeleton
+     * @throws IOException        if file cannot be read
+     * @throws XMLStreamException if file is not well-formed XML
+     */
+    static MavenPomSkeleton read(Path descriptor) throws IOException, XMLStreamException {
+        MavenPomSkeleton ret = new MavenPomSkeleton();
+        ret.directory = descriptor.toAbsolutePath().normalize().getParent();
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(
+                new ByteArrayInputStream(Files.readAllBytes(descriptor)));
+        try {
+            ret.parse(reader);
+        } finally {
+            reader.close();
+        }
+        ret.groupId = StringUtils.defaultIfEmpty(ret.groupId, ret.parentGroupId);
+        ret.version = StringUtils.defaultIfEmpty(ret.version, ret.parentVersion);
+        ret.resolveDependencies();
+        return ret;
+    }
+
+    /**
+     * @return group/artifactid
+     */
+    String id() {
+        return groupId + '/' + artifactId;
+    }
+
+    /**
+     * @return group/artifactid of parent project, null if there is no parent
+     */
+    String parentId() {
+        if (parentArtifactId == null) {
+            return null;
+        }
+        return parentGroupId + '/' + parentArtifactId;
+    }
+
+    /**
+     * Collects values of interesting elements
+     *
+     * @param reader XML reader positioned at the beginning of document
+     * @throws XMLStreamException
+     */
+    private void parse(XMLStreamReader reader) throws XMLStreamException {
+        // element path relative to project element, stack holds path length before each open element
+        StringBuilder path = new StringBuilder();
+        Deque<Integer> lengths = new LinkedList<>();
+        StringBuilder text = new StringBuilder();
+        String dependencyGroupId = null;
+        String dependencyArtifactId = null;
+        String dependencyScope = null;
+        int depth = 0;
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    text.setLength(0);
+                    if (depth == 1) {
+                        // project element
+                        continue;
+                    }
+                    lengths.push(path.length());
+                    if (path.length() > 0) {
+                        path.append('/');
+                    }
+                    path.append(reader.getLocalName());
+                    if (depth == 2) {
+                        if (PROFILES.contentEquals(path)) {
+                            incomplete = true;
+                        } else if (REPOSITORIES.contentEquals(path)) {
+                            repositories = true;
+                        }
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    text.append(reader.getText());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    if (depth == 0) {
+                        return;
+                    }
+                    String value = text.toString().trim();
+                    text.setLength(0);
+                    switch (path.toString()) {
+                        case GROUP_ID:
+                            groupId = value;
+                            break;
+                        case ARTIFACT_ID:
+                            artifactId = value;
+                            break;
+                        case VERSION:
+                            version = value;
+                            break;
+                        case PARENT_GROUP_ID:
+                            parentGroupId = value;
+                            break;
+                        case PARENT_ARTIFACT_ID:
+                            parentArtifactId = value;
+                            break;
+                        case PARENT_VERSION:
+                            parentVersion = value;
+                            break;
+                        case MODULE:
+                            modules.add(value);
+                            break;
+                        case DEPENDENCY_GROUP_ID:
+                        case MANAGED_DEPENDENCY_GROUP_ID:
+                            dependencyGroupId = value;
+                            break;
+                        case DEPENDENCY_ARTIFACT_ID:
+                        case MANAGED_DEPENDENCY_ARTIFACT_ID:
+                            dependencyArtifactId = value;
+                            break;
+                        case MANAGED_DEPENDENCY_SCOPE:
+                            dependencyScope = value;
+                            break;
+                        case DEPENDENCY:
+                            if (dependencyGroupId == null || dependencyArtifactId == null) {
+                                incomplete = true;
+                            } else {
+                                dependencies.add(dependencyGroupId + '/' + dependencyArtifactId);
+                            }
+                            dependencyGroupId = null;
+                            dependencyArtifactId = null;
+                            break;
+                        case MANAGED_DEPENDENCY:
+                            if (IMPORT_SCOPE.equals(dependencyScope)) {
+                                if (dependencyGroupId == null || dependencyArtifactId == null) {
+                                    incomplete = true;
+                                } else {
+                                    imports.add(dependencyGroupId + '/' + dependencyArtifactId);
+                                }
+                            }
+                            dependencyGroupId = null;
+                            dependencyArtifactId = null;
+                            dependencyScope = null;
+                            break;
+                    }
+                    path.setLength(lengths.pop());
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Substitutes project's own coordinates in dependencies, imports and modules, marks skeleton incomplete if other
+     * properties are referred
+     */
+    private void resolveDependencies() {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("${project.groupId}", groupId);
+        properties.put("${pom.groupId}", groupId);
+        properties.put("${groupId}", groupId);
+        properties.put("${project.parent.groupId}", parentGroupId);
+        properties.put("${project.artifactId}", artifactId);
+        properties.put("${project.version}", version);
+        properties.put("${pom.version}", version);
+        properties.put("${version}", version);
+
+        dependencies = resolve(dependencies, properties);
+        imports = resolve(imports, properties);
+        for (String module : modules) {
+            incomplete |= module.contains("${");
+        }
+        incomplete |= StringUtils.isEmpty(groupId) || StringUtils.isEmpty(artifactId) ||
+                groupId.contains("${") || artifactId.contains("${");
+    }
+
+    /**
+     * @param ids        group/artifactid values to substitute properties in
+     * @param properties property reference -> value
+     * @return group/artifactid values with properties substituted
+     */
+    private List<String> resolve(List<String> ids, Map<String, String> properties) {
+        List<String> ret = new LinkedList<>();
+        for (String id : ids) {
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                if (property.getValue() != null) {
+                    id = id.replace(property.getKey(), property.getValue());
+                }
+            }
+            incomplete |= id.contains("${");
+            ret.add(id);
+        }
+        return ret;
+    }
+}
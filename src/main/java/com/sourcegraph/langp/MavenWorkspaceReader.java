@@ -0,0 +1,123 @@
+package com.sourcegraph.langp;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.WorkspaceReader;
+import org.eclipse.aether.repository.WorkspaceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Resolves POM artifacts of projects found in the workspace from local files, so that parent POMs, BOM imports
+ * and inter-module dependencies never hit remote repositories
+ */
+class MavenWorkspaceReader implements WorkspaceReader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MavenWorkspaceReader.class);
+
+    private static final String POM = "pom";
+
+    private WorkspaceRepository repository = new WorkspaceRepository("reactor");
+
+    /**
+     * groupId:artifactId:version -> pom.xml
+     */
+    private Map<String, File> descriptors = new HashMap<>();
+
+    /**
+     * groupId:artifactId -> versions found in workspace
+     */
+    private Map<String, List<String>> versions = new HashMap<>();
+
+    /**
+     * pom.xml -> skeleton, descriptors that cannot be read are not listed
+     */
+    private Map<Path, MavenPomSkeleton> skeletons = new HashMap<>();
+
+    /**
+     * Reads coordinates of the given Maven project descriptors. Descriptors that cannot be read or have
+     * coordinates that need interpolation are ignored
+     *
+     * @param descriptors pom.xml files
+     */
+    MavenWorkspaceReader(Collection<Path> descriptors) {
+        for (Path descriptor : descriptors) {
+            MavenPomSkeleton skeleton;
+            try {
+                skeleton = MavenPomSkeleton.read(descriptor);
+            } catch (IOException | XMLStreamException e) {
+                LOGGER.debug("Cannot read Maven project descriptor {}", descriptor, e);
+                continue;
+            }
+            Path file = descriptor.toAbsolutePath().normalize();
+            skeletons.put(file, skeleton);
+            add(skeleton.groupId, skeleton.artifactId, skeleton.version, file.toFile());
+        }
+    }
+
+    /**
+     * @param descriptor pom.xml path
+     * @return skeleton of workspace project or null if descriptor cannot be read
+     */
+    MavenPomSkeleton getSkeleton(Path descriptor) {
+        return skeletons.get(descriptor.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Registers workspace project
+     *
+     * @param groupId    group ID
+     * @param artifactId artifact ID
+     * @param version    version
+     * @param descriptor project's pom.xml
+     */
+    private void add(String groupId, String artifactId, String version, File descriptor) {
+        if (StringUtils.isEmpty(groupId) || StringUtils.isEmpty(artifactId) || StringUtils.isEmpty(version)) {
+            return;
+        }
+        if (groupId.contains("${") || artifactId.contains("${") || version.contains("${")) {
+            return;
+        }
+        if (descriptors.putIfAbsent(groupId + ':' + artifactId + ':' + version, descriptor) == null) {
+            versions.computeIfAbsent(groupId + ':' + artifactId, k -> new LinkedList<>()).add(version);
+        }
+    }
+
+    /**
+     * @param groupId    group ID
+     * @param artifactId artifact ID
+     * @param version    version
+     * @return pom.xml of matching workspace project or null
+     */
+    File findDescriptor(String groupId, String artifactId, String version) {
+        return descriptors.get(groupId + ':' + artifactId + ':' + version);
+    }
+
+    @Override
+    public WorkspaceRepository getRepository() {
+        return repository;
+    }
+
+    @Override
+    public File findArtifact(Artifact artifact) {
+        if (!POM.equals(artifact.getExtension()) || !StringUtils.isEmpty(artifact.getClassifier())) {
+            return null;
+        }
+        return findDescriptor(artifact.getGroupId(), artifact.getArtifactId(), artifact.getBaseVersion());
+    }
+
+    @Override
+    public List<String> findVersions(Artifact artifact) {
+        List<String> ret = versions.get(artifact.getGroupId() + ':' + artifact.getArtifactId());
+        if (ret == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(ret);
+    }
+}
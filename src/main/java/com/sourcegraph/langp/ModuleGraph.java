@@ -0,0 +1,199 @@
+package com.sourcegraph.langp;
+
+import java.util.*;
+
+/**
+ * Graph of workspace modules, edge goes from module to module it uses (depends on, aggregates, inherits from).
+ * Keeps both forward and reverse adjacency, so that transitive dependencies of a module and modules affected by
+ * a change can be found without scanning the whole workspace. Transitive closures are memoized: closure of a module
+ * is assembled from closures of modules it uses, modules that form a cycle are walked within their strongly
+ * connected component only. Safe for concurrent use.
+ *
+ * @param <K> module identifier
+ */
+class ModuleGraph<K> {
+
+    /**
+     * module -> modules it uses, in declaration order
+     */
+    private Map<K, Collection<K>> dependencies = new LinkedHashMap<>();
+
+    /**
+     * module -> modules that use it
+     */
+    private Map<K, Collection<K>> dependents = new HashMap<>();
+
+    /**
+     * module -> index of strongly connected component it belongs to, computed on demand
+     */
+    private Map<K, Integer> components;
+
+    /**
+     * module -> transitive closure
+     */
+    private Map<K, List<K>> closures = new HashMap<>();
+
+    /**
+     * Registers module
+     *
+     * @param module module to add
+     */
+    synchronized void addModule(K module) {
+        if (!dependencies.containsKey(module)) {
+            dependencies.put(module, new LinkedHashSet<>());
+            invalidate();
+        }
+    }
+
+    /**
+     * Registers edge between modules, both modules are registered if needed
+     *
+     * @param module     module
+     * @param dependency module used by given one
+     */
+    synchronized void addDependency(K module, K dependency) {
+        addModule(module);
+        addModule(dependency);
+        if (dependencies.get(module).add(dependency)) {
+            dependents.computeIfAbsent(dependency, k -> new LinkedHashSet<>()).add(module);
+            invalidate();
+        }
+    }
+
+    /**
+     * @param module module identifier
+     * @return true if module is registered
+     */
+    synchronized boolean contains(K module) {
+        return dependencies.containsKey(module);
+    }
+
+    /**
+     * @param module module identifier
+     * @return modules used by given one directly
+     */
+    synchronized Collection<K> getDependencies(K module) {
+        return new ArrayList<>(dependencies.getOrDefault(module, Collections.emptyList()));
+    }
+
+    /**
+     * @param module module identifier
+     * @return module followed by modules it uses directly or transitively, in depth-first order
+     */
+    synchronized List<K> getClosure(K module) {
+        if (!dependencies.containsKey(module)) {
+            return Collections.singletonList(module);
+        }
+        if (components == null) {
+            components = new HashMap<>();
+            Components finder = new Components();
+            for (K candidate : dependencies.keySet()) {
+                if (!components.containsKey(candidate)) {
+                    finder.visit(candidate);
+                }
+            }
+        }
+        return closure(module);
+    }
+
+    /**
+     * @param modules changed modules
+     * @return given modules and modules that use them directly or transitively
+     */
+    synchronized Set<K> getAffected(Collection<K> modules) {
+        Set<K> ret = new LinkedHashSet<>();
+        Deque<K> queue = new LinkedList<>(modules);
+        while (!queue.isEmpty()) {
+            K module = queue.poll();
+            if (ret.add(module)) {
+                queue.addAll(dependents.getOrDefault(module, Collections.emptyList()));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Drops computed components and closures after graph modification
+     */
+    private void invalidate() {
+        components = null;
+        closures.clear();
+    }
+
+    /**
+     * @param module registered module
+     * @return memoized transitive closure of module
+     */
+    private List<K> closure(K module) {
+        List<K> ret = closures.get(module);
+        if (ret == null) {
+            Set<K> collected = new LinkedHashSet<>();
+            collect(module, components.get(module), collected);
+            ret = Collections.unmodifiableList(new ArrayList<>(collected));
+            closures.put(module, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Collects closure of module, modules from other components contribute their memoized closures
+     *
+     * @param module    module to collect closure of
+     * @param component module's component
+     * @param ret       target collection
+     */
+    private void collect(K module, Integer component, Set<K> ret) {
+        if (!ret.add(module)) {
+            return;
+        }
+        for (K dependency : dependencies.get(module)) {
+            if (component.equals(components.get(dependency))) {
+                collect(dependency, component, ret);
+            } else {
+                ret.addAll(closure(dependency));
+            }
+        }
+    }
+
+    /**
+     * Finds strongly connected components (Tarjan's algorithm)
+     */
+    private class Components {
+
+        private Map<K, Integer> index = new HashMap<>();
+        private Map<K, Integer> lowLink = new HashMap<>();
+        private Deque<K> stack = new LinkedList<>();
+        private Set<K> onStack = new HashSet<>();
+        private int count;
+
+        /**
+         * Assigns component to module and modules reachable from it
+         *
+         * @param module module to start from
+         */
+        void visit(K module) {
+            int moduleIndex = index.size();
+            index.put(module, moduleIndex);
+            lowLink.put(module, moduleIndex);
+            stack.push(module);
+            onStack.add(module);
+            for (K dependency : dependencies.get(module)) {
+                if (!index.containsKey(dependency)) {
+                    visit(dependency);
+                    lowLink.put(module, Math.min(lowLink.get(module), lowLink.get(dependency)));
+                } else if (onStack.contains(dependency)) {
+                    lowLink.put(module, Math.min(lowLink.get(module), index.get(dependency)));
+                }
+            }
+            if (lowLink.get(module) == moduleIndex) {
+                K member;
+                do {
+                    member = stack.pop();
+                    onStack.remove(member);
+                    components.put(member, count);
+                } while (!member.equals(module));
+                count++;
+            }
+        }
+    }
+}
@@ -4,29 +4,225 @@ import com.beust.jcommander.Parameter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 public class PrepareCommand {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PrepareCommand.class);
 
-    @Parameter(names = {"--workspace"}, description = "Workspace path", required = true)
-    String workspace;
+    @Parameter(names = {"--workspace"}, description = "Workspace path, may be specified multiple times")
+    List<String> workspaces = new ArrayList<>();
+
+    @Parameter(names = {"--workspaces-file"}, description = "File that lists workspace paths, one per line")
+    String workspacesFile;
+
+    @Parameter(names = {"--workspace-threads"}, description = "Max number of workspaces to prepare concurrently")
+    int workspaceThreads = 1;
+
+    @Parameter(names = {"--scan-threads"}, description = "Number of threads used to scan workspace, 1 disables parallel scan")
+    int scanThreads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = {"--maven-threads"}, description = "Number of threads used to build Maven project models")
+    int mavenThreads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = {"--maven-heap-budget"}, description = "Heap (MB) for Maven model building and dependency resolution, 0 means half of max heap. Limits number of concurrent Maven workers only, heap use is not enforced. Expected footprint of shared Maven model cache (bounded by number of models) is reserved from it")
+    long mavenHeapBudget;
+
+    @Parameter(names = {"--shared-dependency-graph"}, description = "Collect transitive graph of each unique Maven dependency once per workspace and assemble module classpaths from shared subgraphs")
+    boolean sharedDependencyGraph;
+
+    @Parameter(names = {"--download-threads"}, description = "Number of threads used to fetch Maven artifacts")
+    int downloadThreads = 8;
+
+    @Parameter(names = {"--downloads-per-repository"}, description = "Max number of concurrent downloads from the same Maven repository")
+    int downloadsPerRepository = 4;
+
+    @Parameter(names = {"--offline"}, description = "Never contact remote repositories, resolve dependencies from local Maven repository and Gradle cache only")
+    boolean offline;
+
+    @Parameter(names = {"--gradle-backend"}, description = "Gradle metadata extraction backend: \"process\" (Gradle process with metadata extraction script) or \"tooling\" (Tooling API, experimental, falls back to \"process\" on failure and for Android builds)")
+    String gradleBackend = GradleConfiguration.BACKEND_PROCESS;
+
+    @Parameter(names = {"--gradle-metadata-only"}, description = "Collect Gradle configuration-time data only (resolved configurations, source sets, output dirs), do not build generated sources. Supported by \"process\" backend only, \"tooling\" backend never runs build tasks")
+    boolean gradleMetadataOnly;
+
+    @Parameter(names = {"--gradle-threads"}, description = "Max number of independent Gradle builds to extract concurrently, also limited by available memory")
+    int gradleThreads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = {"--gradle-parallel"}, description = "Process projects of the same Gradle build in parallel (\"process\" backend). Builds with cross-project configuration may not support it. Processors are split between Gradle builds running concurrently")
+    boolean gradleParallel;
+
+    @Parameter(names = {"--cache-dir"}, description = "Directory to keep persistent caches in")
+    String cacheDir = Paths.get(System.getProperty("user.home"), ".java-lang-processor", "cache").toString();
+
+    @Parameter(names = {"--refresh"}, description = "Ignore cached data (workspace scan, Maven classpaths, Gradle meta information) and rebuild caches from scratch")
+    boolean refresh;
+
+    @Parameter(names = {"--pretty"}, description = "Pretty print .jls-config files (debug mode)")
+    boolean pretty;
+
+    @Parameter(names = {"--config-format"}, description = "Configuration format: \"standalone\" (each .jls-config lists all the paths) or \"pooled\" (paths are kept in workspace-level .jls-index, .jls-config refers to them by ID)")
+    String configFormat = ConfigurationWriter.FORMAT_STANDALONE;
+
+    /**
+     * Build files changed since previous run, when set only configurations affected by them are written
+     * (used by watch mode)
+     */
+    Collection<Path> changedDescriptors;
+
+    /**
+     * Stops Gradle builds started by this command when command is cancelled (used by serve mode)
+     */
+    GradleCancellation cancellation = new GradleCancellation();
+
+    /**
+     * Worker pools shared by workspaces. Created for each run unless set by caller that shares them between
+     * commands (used by serve and watch modes), pool sizes are taken from options of the command that creates them
+     */
+    WorkerPools pools;
+
+    /**
+     * Index of the workspace scanned last, lets watch mode find build files without scanning workspace again.
+     * Meaningful for single workspace runs only
+     */
+    volatile WorkspaceIndex index;
 
     /**
      * Main method
      */
     public void Execute() {
-
-        Path path = Paths.get(workspace);
         try {
-            if (!MavenConfiguration.prepare(path) && !GradleConfiguration.prepare(path)) {
-                DefaultConfiguration.prepare(path);
-            }
+            prepare();
         } catch (Exception e) {
             LOGGER.error("Unexpected error occurred while collecting source units", e);
             System.exit(1);
         }
     }
-}
+
+    /**
+     * Collects source units of all the workspaces and writes their configuration. Workspaces share the same
+     * repository system, Maven model and artifact caches and the same worker pools
+     *
+     * @throws Exception if configuration of some workspace cannot be collected
+     */
+    void prepare() throws Exception {
+        List<Path> paths = getWorkspaces();
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("No workspace specified");
+        }
+        if (gradleMetadataOnly && GradleConfiguration.BACKEND_TOOLING.equals(gradleBackend)) {
+            throw new IllegalArgumentException("--gradle-metadata-only is supported by \"" +
+                    GradleConfiguration.BACKEND_PROCESS + "\" Gradle backend only");
+        }
+        if (pools != null) {
+            prepare(paths);
+            return;
+        }
+        try (WorkerPools pools = new WorkerPools(this)) {
+            this.pools = pools;
+            prepare(paths);
+        } finally {
+            this.pools = null;
+        }
+    }
+
+    /**
+     * Collects source units of the given workspaces and writes their configuration
+     *
+     * @param paths workspace paths
+     * @throws Exception if configuration of some workspace cannot be collected
+     */
+    private void prepare(List<Path> paths) throws Exception {
+        if (paths.size() == 1) {
+            prepare(paths.get(0));
+            return;
+        }
+
+        LOGGER.info("Preparing {} workspaces", paths.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(workspaceThreads,
+                paths.size())));
+        try {
+            Map<Path, Future<Long>> results = new LinkedHashMap<>();
+            for (Path path : paths) {
+                results.put(path, executor.submit(() -> {
+                    long started = System.currentTimeMillis();
+                    prepare(path);
+                    return System.currentTimeMillis() - started;
+                }));
+            }
+            int failed = 0;
+            StringBuilder summary = new StringBuilder();
+            for (Map.Entry<Path, Future<Long>> result : results.entrySet()) {
+                summary.append(System.lineSeparator()).append(result.getKey()).append(": ");
+                try {
+                    long elapsed = result.getValue().get();
+                    summary.append("done in ").append(elapsed).append(" ms");
+                } catch (ExecutionException e) {
+                    LOGGER.error("Unable to prepare workspace {}", result.getKey(), e.getCause());
+                    summary.append("failed - ").append(e.getCause());
+                    failed++;
+                }
+            }
+            LOGGER.info("Prepared {} of {} workspaces{}", paths.size() - failed, paths.size(), summary);
+            if (failed > 0) {
+                throw new IllegalStateException(failed + " of " + paths.size() + " workspaces failed");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Collects source units of workspace and writes their configuration
+     *
+     * @param path workspace path
+     * @throws Exception if configuration cannot be collected
+     */
+    private void prepare(Path path) throws Exception {
+        if (!Files.isDirectory(path)) {
+            throw new NoSuchFileException(path.toString(), null, "workspace is not a directory");
+        }
+        LOGGER.info("Scanning workspace {}", path);
+        WorkspaceCache cache = new WorkspaceCache(Paths.get(cacheDir), path, refresh);
+        WorkspaceIndex index = ScanUtil.scanWorkspace(path, pools.getScanPool(), cache);
+        this.index = index;
+        ConfigurationWriter writer = new ConfigurationWriter(path, configFormat, pretty, changedDescriptors != null);
+        if (!MavenConfiguration.prepare(path, index, cache, writer, this) &&
+                !GradleConfiguration.prepare(path, index, cache, writer, this)) {
+            DefaultConfiguration.prepare(path, index, writer);
+        }
+        writer.flush();
+    }
+
+    /**
+     * @return distinct workspaces specified by command line and workspaces file
+     * @throws IOException if workspaces file cannot be read
+     */
+    List<Path> getWorkspaces() throws IOException {
+        Collection<String> ret = new LinkedHashSet<>(workspaces);
+        if (workspacesFile != null) {
+            for (String line : Files.readAllLines(Paths.get(workspacesFile), StandardCharsets.UTF_8)) {
+                line = line.trim();
+                // blank lines and comments
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    ret.add(line);
+                }
+            }
+        }
+        return ret.stream().
+                map(workspace -> Paths.get(workspace).toAbsolutePath().normalize()).
+                distinct().
+                collect(Collectors.toList());
+    }
+}
\ No newline at end of file
@@ -1,49 +1,140 @@
 package com.sourcegraph.langp;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
+import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * File scan utilities
  */
 class ScanUtil {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScanUtil.class);
+
+    /**
+     * Directories modified less than given number of milliseconds before scan started are re-listed on next scan,
+     * file system timestamp granularity does not let us detect changes made within the same tick
+     */
+    private static final long RACY_INTERVAL = 2000;
+
+    /**
+     * Name of cache entry to keep directory listing summaries in
+     */
+    private static final String SCAN_INDEX = "scan-index.json";
+
+    /**
+     * Increment when scan rules or scan index format change
+     */
+    private static final int SCAN_INDEX_VERSION = 1;
+
     private ScanUtil() {
     }
 
     /**
-     * Retrieves all matching files in the given root
+     * Collects build descriptors and source directory candidates in the given root, revalidates and updates
+     * directory listing summaries kept in cache
      * @param root root directory
-     * @param fileName file name to match against
-     * @return found files
+     * @param threads number of threads to use
+     * @param cache workspace cache (may be null)
+     * @return workspace index, entries are sorted
      * @throws IOException
      */
-    static Collection<Path> findMatchingFiles(Path root, String fileName) throws IOException {
-        Collection<Path> result = new HashSet<>();
+    static WorkspaceIndex scanWorkspace(Path root, int threads, WorkspaceCache cache) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(threads, 1));
+        try {
+            return scanWorkspace(root, pool, cache);
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+    /**
+     * Collects build descriptors and source directory candidates in the given root, revalidates and updates
+     * directory listing summaries kept in cache
+     * @param root root directory
+     * @param pool fork/join pool to scan with, may be shared by concurrent scans
+     * @param cache workspace cache (may be null)
+     * @return workspace index, entries are sorted
+     * @throws IOException
+     */
+    static WorkspaceIndex scanWorkspace(Path root, ForkJoinPool pool, WorkspaceCache cache) throws IOException {
+        Map<String, WorkspaceIndex.DirectoryEntry> previous = null;
+        if (cache != null) {
+            ScanSnapshot snapshot = cache.read(SCAN_INDEX, ScanSnapshot.class);
+            if (snapshot != null && snapshot.version == SCAN_INDEX_VERSION && snapshot.directories != null) {
+                previous = snapshot.directories;
+            }
+        }
+        WorkspaceIndex index = scanWorkspace(root, pool, previous);
+        LOGGER.debug("Listed {} of {} directories", index.getListedDirectories(), index.getDirectories().size());
+        if (cache != null && (previous == null || index.getListedDirectories() > 0)) {
+            cache.write(SCAN_INDEX, new ScanSnapshot(index.getDirectories()));
+        }
+        return index;
+    }
+
+    /**
+     * Collects build descriptors and source directory candidates in the given root
+     * @param root root directory
+     * @param pool fork/join pool to scan with, parallelism less than 2 turns on single-threaded file tree walk
+     * @param previous directory listing summaries made by previous scan (may be null). Directories which
+     *                 modification time did not change since previous scan are not listed again
+     * @return workspace index, entries are sorted
+     * @throws IOException
+     */
+    private static WorkspaceIndex scanWorkspace(Path root,
+                                                ForkJoinPool pool,
+                                                Map<String, WorkspaceIndex.DirectoryEntry> previous)
+            throws IOException {
+        WorkspaceIndex index;
+        if (pool.getParallelism() < 2 && previous == null) {
+            index = scanWorkspace(root);
+        } else {
+            index = scanWorkspaceParallel(root, pool, previous);
+        }
+        index.sort();
+        return index;
+    }
+
+    /**
+     * Collects build descriptors and source directory candidates in the given root using single file tree walk
+     * @param root root directory
+     * @return workspace index
+     * @throws IOException
+     */
+    private static WorkspaceIndex scanWorkspace(Path root) throws IOException {
+        WorkspaceIndex index = new WorkspaceIndex(root);
+        Path start = index.getRoot();
+        long started = System.currentTimeMillis();
+
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                String name = file.getFileName().toString();
-                if (fileName.equals(name)) {
-                    result.add(file.toAbsolutePath().normalize());
+                if (index.addFile(file)) {
+                    index.getDirectory(file.getParent()).files.add(file.getFileName().toString());
                 }
                 return FileVisitResult.CONTINUE;
             }
 
             @Override
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                // Skip common build data directories and dot-directories.
-                String dirName = dir.getFileName().normalize().toString();
-                if (dirName.equals("build") || dirName.equals("target") || dirName.startsWith(".")) {
+                if (dir.equals(start)) {
+                    index.addDirectory(dir, modified(attrs, started));
+                    return FileVisitResult.CONTINUE;
+                }
+                if (isSkipped(dir)) {
                     return FileVisitResult.SKIP_SUBTREE;
                 }
+                index.getDirectory(dir.getParent()).directories.add(dir.getFileName().toString());
+                index.addDirectory(dir, modified(attrs, started));
                 return FileVisitResult.CONTINUE;
             }
 
@@ -53,6 +144,145 @@ class ScanUtil {
             }
         });
 
-        return result;
+        return index;
+    }
+
+    /**
+     * Collects build descriptors and source directory candidates in the given root splitting subtrees between
+     * fork/join workers
+     * @param root root directory
+     * @param pool fork/join pool to scan with
+     * @param previous directory listing summaries made by previous scan (may be null)
+     * @return workspace index
+     * @throws IOException
+     */
+    private static WorkspaceIndex scanWorkspaceParallel(Path root,
+                                                        ForkJoinPool pool,
+                                                        Map<String, WorkspaceIndex.DirectoryEntry> previous)
+            throws IOException {
+        WorkspaceIndex index = new WorkspaceIndex(root);
+        Path start = index.getRoot();
+        if (!Files.isDirectory(start)) {
+            throw new NoSuchFileException(start.toString());
+        }
+        index.merge(pool.invoke(new ScanTask(index.getRoot(),
+                start,
+                previous,
+                System.currentTimeMillis())));
+        return index;
+    }
+
+    /**
+     * @param dir directory to check
+     * @return true if directory should not be scanned
+     */
+    static boolean isSkipped(Path dir) {
+        // Skip common build data directories and dot-directories.
+        String dirName = dir.getFileName().normalize().toString();
+        return dirName.equals("build") || dirName.equals("target") || dirName.startsWith(".");
+    }
+
+    /**
+     * @param attrs   directory attributes
+     * @param started scan start time
+     * @return directory modification time or -1 if directory was modified too close to scan start time
+     */
+    private static long modified(BasicFileAttributes attrs, long started) {
+        long modified = attrs.lastModifiedTime().toMillis();
+        if (started - modified < RACY_INTERVAL) {
+            return -1;
+        }
+        return modified;
+    }
+
+    /**
+     * Scans single directory, forks subtasks for subdirectories
+     */
+    private static class ScanTask extends RecursiveTask<WorkspaceIndex> {
+
+        private static final long serialVersionUID = 1L;
+
+        private Path root;
+        private Path dir;
+        private Map<String, WorkspaceIndex.DirectoryEntry> previous;
+        private long started;
+
+        /**
+         * @param root     workspace root
+         * @param dir      directory to scan
+         * @param previous directory listing summaries made by previous scan (may be null)
+         * @param started  scan start time
+         */
+        ScanTask(Path root, Path dir, Map<String, WorkspaceIndex.DirectoryEntry> previous, long started) {
+            this.root = root;
+            this.dir = dir;
+            this.previous = previous;
+            this.started = started;
+        }
+
+        @Override
+        protected WorkspaceIndex compute() {
+            WorkspaceIndex ret = new WorkspaceIndex(root);
+            BasicFileAttributes dirAttrs;
+            try {
+                dirAttrs = Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                LOGGER.debug("Unable to read attributes of {}", dir, e);
+                return ret;
+            }
+
+            Collection<ScanTask> subtasks = new LinkedList<>();
+            WorkspaceIndex.DirectoryEntry entry = previous == null ? null :
+                    previous.get(root.relativize(dir).toString());
+            if (entry != null && entry.modified >= 0 && entry.modified == dirAttrs.lastModifiedTime().toMillis()) {
+                // directory content did not change since previous scan
+                ret.addDirectory(dir, entry);
+                for (String name : entry.directories) {
+                    subtasks.add(new ScanTask(root, dir.resolve(name), previous, started));
+                }
+            } else {
+                entry = ret.addDirectory(dir, modified(dirAttrs, started));
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                    for (Path child : stream) {
+                        BasicFileAttributes attrs;
+                        try {
+                            attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        } catch (IOException e) {
+                            continue;
+                        }
+                        if (!attrs.isDirectory()) {
+                            if (ret.addFile(child)) {
+                                entry.files.add(child.getFileName().toString());
+                            }
+                        } else if (!isSkipped(child)) {
+                            entry.directories.add(child.getFileName().toString());
+                            subtasks.add(new ScanTask(root, child, previous, started));
+                        }
+                    }
+                } catch (IOException | DirectoryIteratorException e) {
+                    LOGGER.debug("Unable to list directory {}", dir, e);
+                    entry.modified = -1;
+                    return ret;
+                }
+            }
+            for (ScanTask subtask : invokeAll(subtasks)) {
+                ret.merge(subtask.join());
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Scan index persisted between runs
+     */
+    private static class ScanSnapshot {
+
+        int version;
+        Map<String, WorkspaceIndex.DirectoryEntry> directories;
+
+        ScanSnapshot(Map<String, WorkspaceIndex.DirectoryEntry> directories) {
+            this.version = SCAN_INDEX_VERSION;
+            this.directories = directories;
+        }
     }
 }
@@ -0,0 +1,220 @@
+package com.sourcegraph.langp;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.google.gson.JsonParseException;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Long-running mode, reads requests from stdin and writes responses to stdout, one JSON document per line.
+ * Repository system, model caches of released artifacts and resolved artifacts are kept warm between requests.
+ * Cancelling request interrupts its threads and stops Gradle builds it started. Concurrent requests share worker
+ * pools of default size, thread options of requests are ignored.
+ * <p>
+ * Requests are
+ * <pre>
+ * {"id": "1", "command": "prepare", "args": ["--workspace", "/path/to/workspace"]}
+ * {"id": "2", "command": "cancel", "target": "1"}
+ * </pre>
+ * where args are the same as prepare command accepts. Each prepare request is answered with
+ * <pre>
+ * {"id": "1", "status": "done|failed|cancelled", "error": "...", "elapsed": 1234}
+ * </pre>
+ */
+public class ServeCommand {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServeCommand.class);
+
+    private static final String COMMAND_PREPARE = "prepare";
+    private static final String COMMAND_CANCEL = "cancel";
+
+    private static final String STATUS_DONE = "done";
+    private static final String STATUS_FAILED = "failed";
+    private static final String STATUS_CANCELLED = "cancelled";
+
+    @Parameter(names = {"--concurrency"}, description = "Max number of prepare requests to process concurrently")
+    int concurrency = 1;
+
+    /**
+     * request ID -> request being processed or waiting in queue
+     */
+    private Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    private Writer out;
+
+    private WorkerPools pools;
+
+    /**
+     * Main method
+     */
+    public void Execute() {
+        out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(concurrency, 1));
+        pools = new WorkerPools(new PrepareCommand());
+        LOGGER.info("Waiting for requests");
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (StringUtils.isBlank(line)) {
+                    continue;
+                }
+                Request request;
+                try {
+                    request = JSONUtil.read(new StringReader(line), Request.class);
+                } catch (JsonParseException e) {
+                    LOGGER.error("Malformed request {}", line, e);
+                    continue;
+                }
+                if (request == null || request.id == null) {
+                    LOGGER.error("Request without ID {}", line);
+                    continue;
+                }
+                switch (StringUtils.defaultString(request.command)) {
+                    case COMMAND_PREPARE:
+                        submit(executor, request);
+                        break;
+                    case COMMAND_CANCEL:
+                        cancel(request.target);
+                        break;
+                    default:
+                        respond(new Response(request.id, STATUS_FAILED, "Unknown command " + request.command, 0));
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Unable to read requests", e);
+        } finally {
+            // stdin is closed, finishing requests already accepted
+            executor.shutdown();
+        }
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pools.close();
+        LOGGER.info("No more requests");
+    }
+
+    /**
+     * Schedules prepare request
+     *
+     * @param executor executor to run request with
+     * @param request  request to run
+     */
+    private void submit(ExecutorService executor, Request request) {
+        Job job = new Job();
+        // each request gets its own options, workspace index and caches
+        job.prepare = new PrepareCommand();
+        job.prepare.pools = pools;
+        if (jobs.putIfAbsent(request.id, job) != null) {
+            respond(new Response(request.id, STATUS_FAILED, "Duplicate request ID", 0));
+            return;
+        }
+        job.future = executor.submit(() -> {
+            if (!job.started.compareAndSet(false, true)) {
+                // cancelled while waiting in queue
+                return;
+            }
+            long started = System.currentTimeMillis();
+            try {
+                new JCommander(job.prepare).parse(request.args == null ? new String[0] : request.args);
+                LOGGER.info("Processing request {}", request.id);
+                job.prepare.prepare();
+                respond(new Response(request.id, STATUS_DONE, null, System.currentTimeMillis() - started));
+            } catch (Exception e) {
+                if (job.cancelled) {
+                    respond(new Response(request.id,
+                            STATUS_CANCELLED,
+                            null,
+                            System.currentTimeMillis() - started));
+                } else {
+                    LOGGER.error("Failed to process request {}", request.id, e);
+                    respond(new Response(request.id,
+                            STATUS_FAILED,
+                            String.valueOf(e.getMessage()),
+                            System.currentTimeMillis() - started));
+                }
+            } finally {
+                jobs.remove(request.id);
+                // clearing interrupted flag before thread picks next request
+                Thread.interrupted();
+            }
+        });
+    }
+
+    /**
+     * Cancels prepare request, running request is interrupted and its Gradle builds are stopped
+     *
+     * @param id ID of request to cancel
+     */
+    private void cancel(String id) {
+        Job job = id == null ? null : jobs.get(id);
+        if (job == null) {
+            LOGGER.warn("Nothing to cancel, request {} is unknown or already completed", id);
+            return;
+        }
+        job.cancelled = true;
+        if (job.started.compareAndSet(false, true)) {
+            jobs.remove(id);
+            respond(new Response(id, STATUS_CANCELLED, null, 0));
+        } else {
+            LOGGER.info("Cancelling request {}", id);
+            job.prepare.cancellation.cancel();
+            Future<?> future = job.future;
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Writes response line
+     *
+     * @param response response to write
+     */
+    private synchronized void respond(Response response) {
+        try {
+            JSONUtil.writeCompact(response, out);
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            LOGGER.error("Unable to write response", e);
+        }
+    }
+
+    private static class Job {
+        PrepareCommand prepare;
+        AtomicBoolean started = new AtomicBoolean();
+        volatile boolean cancelled;
+        volatile Future<?> future;
+    }
+
+    private static class Request {
+        String id;
+        String command;
+        String[] args;
+        String target;
+    }
+
+    private static class Response {
+        String id;
+        String status;
+        String error;
+        long elapsed;
+
+        Response(String id, String status, String error, long elapsed) {
+            this.id = id;
+            this.status = status;
+            this.error = error;
+            this.elapsed = elapsed;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.sourcegraph.langp;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParametersDelegate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prepares workspace and keeps watching its build files. When build files change, configuration is written again
+ * for affected modules and modules that depend on them only
+ */
+public class WatchCommand {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WatchCommand.class);
+
+    private static final String GRADLE_PROPERTIES = "gradle.properties";
+    private static final String GRADLE_SCRIPT_EXTENSION = ".gradle";
+    private static final String GRADLE_KOTLIN_SCRIPT_EXTENSION = ".gradle.kts";
+    private static final String GRADLE_WRAPPER_PROPERTIES = "gradle-wrapper.properties";
+    private static final String GRADLE_WRAPPER_DIR = "gradle/wrapper";
+
+    @ParametersDelegate
+    PrepareCommand prepare = new PrepareCommand();
+
+    @Parameter(names = {"--debounce"}, description = "Time (ms) to wait for more changes before updating configuration")
+    long debounce = 300;
+
+    /**
+     * Directories being watched
+     */
+    private Set<Path> registered = new HashSet<>();
+
+    /**
+     * Main method
+     */
+    public void Execute() {
+        try {
+            watch();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.error("Unexpected error occurred while watching workspace", e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prepares workspace and updates configuration on build file changes until interrupted
+     *
+     * @throws Exception if workspace cannot be prepared or watched
+     */
+    private void watch() throws Exception {
+        List<Path> workspaces = prepare.getWorkspaces();
+        if (workspaces.size() != 1) {
+            throw new IllegalArgumentException("Exactly one workspace should be specified");
+        }
+        Path root = workspaces.get(0);
+
+        // worker pools live as long as watch does, updates do not create them again
+        try (WorkerPools pools = new WorkerPools(prepare);
+             WatchService watcher = root.getFileSystem().newWatchService()) {
+            prepare.pools = pools;
+            // directories are watched before initial run, changes made while it runs are handled by first update
+            register(ScanUtil.scanWorkspace(root,
+                    pools.getScanPool(),
+                    new WorkspaceCache(Paths.get(prepare.cacheDir), root, false)), watcher);
+            prepare.prepare();
+            // caches are rebuilt by initial run only
+            prepare.refresh = false;
+            // new modules may appear during initial run
+            register(prepare.index, watcher);
+            LOGGER.info("Watching build files of {}", root);
+            while (true) {
+                Set<Path> changed = new LinkedHashSet<>();
+                boolean overflow = false;
+                WatchKey key = watcher.take();
+                // bursts of changes (checkout, save all) are collected until there are no events during debounce time
+                while (key != null) {
+                    overflow |= collectChanges(key, changed);
+                    key = watcher.poll(debounce, TimeUnit.MILLISECONDS);
+                }
+                if (!overflow && changed.isEmpty()) {
+                    continue;
+                }
+
+                long started = System.currentTimeMillis();
+                if (overflow) {
+                    LOGGER.info("Too many changes, updating configuration of all modules");
+                    prepare.changedDescriptors = null;
+                } else {
+                    LOGGER.info("Build files changed: {}", changed);
+                    prepare.changedDescriptors = changed;
+                }
+                try {
+                    prepare.prepare();
+                    LOGGER.info("Updated configuration in {} ms", System.currentTimeMillis() - started);
+                } catch (Exception e) {
+                    LOGGER.error("Unable to update configuration", e);
+                }
+                // new modules may appear, they are taken from index update has just built
+                register(prepare.index, watcher);
+            }
+        }
+    }
+
+    /**
+     * Starts watching directories that contain build files and Gradle wrapper directories of Gradle builds
+     *
+     * @param index   workspace index
+     * @param watcher watch service
+     * @throws IOException
+     */
+    private void register(WorkspaceIndex index, WatchService watcher) throws IOException {
+        Collection<Path> files = new LinkedList<>();
+        files.addAll(index.getMavenDescriptors());
+        files.addAll(index.getGradleDescriptors());
+        files.addAll(index.getGradleSettings());
+        Collection<Path> directories = new LinkedHashSet<>();
+        for (Path file : files) {
+            directories.add(file.toAbsolutePath().normalize().getParent());
+        }
+        for (Path file : index.getGradleSettings()) {
+            Path wrapper = file.toAbsolutePath().normalize().resolveSibling(GRADLE_WRAPPER_DIR);
+            if (Files.isDirectory(wrapper)) {
+                directories.add(wrapper);
+            }
+        }
+        for (Path directory : directories) {
+            if (registered.add(directory)) {
+                directory.register(watcher,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+        LOGGER.debug("Watching {} directories", registered.size());
+    }
+
+    /**
+     * Collects changed build files reported by watch key
+     *
+     * @param key     signalled watch key
+     * @param changed collection to fill with changed build files
+     * @return true if some events were lost
+     */
+    private boolean collectChanges(WatchKey key, Collection<Path> changed) {
+        boolean overflow = false;
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            Path file = directory.resolve((Path) event.context());
+            if (isBuildFile(file.getFileName().toString())) {
+                changed.add(file);
+            }
+        }
+        if (!key.reset()) {
+            // directory is no longer accessible
+            registered.remove(directory);
+        }
+        return overflow;
+    }
+
+    /**
+     * @param name file name
+     * @return true if file may affect build configuration
+     */
+    private static boolean isBuildFile(String name) {
+        return name.equals(WorkspaceIndex.MAVEN_DESCRIPTOR) ||
+                name.endsWith(GRADLE_SCRIPT_EXTENSION) ||
+                name.endsWith(GRADLE_KOTLIN_SCRIPT_EXTENSION) ||
+                name.equals(GRADLE_PROPERTIES) ||
+                name.equals(GRADLE_WRAPPER_PROPERTIES);
+    }
+}
@@ -0,0 +1,128 @@
+package com.sourcegraph.langp;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Worker pools shared by all the workspaces prepared by single command, one bounded pool per phase. Workspaces
+ * prepared concurrently compete for the same workers, so that number of threads, number of concurrent Gradle builds
+ * and heap occupied by Maven workers do not grow with number of workspaces. Pools are created on first use.
+ * Executor tasks must not wait for other tasks of the same pool
+ */
+class WorkerPools implements AutoCloseable {
+
+    private PrepareCommand options;
+
+    private ForkJoinPool scanPool;
+    private ExecutorService mavenPool;
+    private ExecutorService downloadPool;
+    private MavenArtifactDownloader.RepositoryLimiter repositoryLimiter;
+    private ExecutorService gradlePool;
+    private int gradlePoolSize;
+    private ExecutorService writePool;
+
+    /**
+     * @param options command options that define pool sizes
+     */
+    WorkerPools(PrepareCommand options) {
+        this.options = options;
+    }
+
+    /**
+     * @return pool that scans workspaces
+     */
+    synchronized ForkJoinPool getScanPool() {
+        if (scanPool == null) {
+            scanPool = new ForkJoinPool(Math.max(options.scanThreads, 1));
+        }
+        return scanPool;
+    }
+
+    /**
+     * @return pool that builds Maven models and resolves Maven classpaths, limited by heap budget
+     */
+    synchronized ExecutorService getMavenPool() {
+        if (mavenPool == null) {
+            mavenPool = Executors.newFixedThreadPool(MavenConfiguration.getPoolSize(options.mavenThreads,
+                    options.mavenHeapBudget));
+        }
+        return mavenPool;
+    }
+
+    /**
+     * @return pool that fetches Maven artifacts
+     */
+    synchronized ExecutorService getDownloadPool() {
+        if (downloadPool == null) {
+            downloadPool = Executors.newFixedThreadPool(Math.max(options.downloadThreads, 1));
+        }
+        return downloadPool;
+    }
+
+    /**
+     * @return limiter of concurrent transfers from each Maven repository
+     */
+    synchronized MavenArtifactDownloader.RepositoryLimiter getRepositoryLimiter() {
+        if (repositoryLimiter == null) {
+            repositoryLimiter = new MavenArtifactDownloader.RepositoryLimiter(
+                    Math.max(options.downloadsPerRepository, 1));
+        }
+        return repositoryLimiter;
+    }
+
+    /**
+     * @return pool that runs Gradle builds, limited by available memory
+     */
+    synchronized ExecutorService getGradlePool() {
+        if (gradlePool == null) {
+            gradlePoolSize = GradleConfiguration.getPoolSize(options.gradleThreads);
+            gradlePool = Executors.newFixedThreadPool(gradlePoolSize);
+        }
+        return gradlePool;
+    }
+
+    /**
+     * @return number of workers single Gradle build may use in parallel mode, so that Gradle builds running
+     * concurrently do not use more workers than there are processors
+     */
+    synchronized int getGradleBuildWorkers() {
+        getGradlePool();
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / gradlePoolSize);
+    }
+
+    /**
+     * @return pool that computes and writes configurations
+     */
+    synchronized ExecutorService getWritePool() {
+        if (writePool == null) {
+            writePool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+        return writePool;
+    }
+
+    /**
+     * Cancels tasks that are still waiting or running, used instead of shutting shared pool down
+     *
+     * @param tasks tasks submitted to shared pool
+     */
+    static void cancel(Collection<? extends Future<?>> tasks) {
+        for (Future<?> task : tasks) {
+            task.cancel(true);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scanPool != null) {
+            scanPool.shutdownNow();
+        }
+        for (ExecutorService pool : new ExecutorService[]{mavenPool, downloadPool, gradlePool, writePool}) {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+}
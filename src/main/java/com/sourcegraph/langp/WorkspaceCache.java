@@ -0,0 +1,91 @@
+package com.sourcegraph.langp;
+
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * Persistent per-workspace cache, keeps data in JSON files under cache root directory
+ */
+class WorkspaceCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkspaceCache.class);
+
+    private Path directory;
+
+    private boolean refresh;
+
+    /**
+     * @param cacheRoot cache root directory, shared by all workspaces
+     * @param workspace workspace root
+     * @param refresh   if true, cached data is ignored (but still updated)
+     */
+    WorkspaceCache(Path cacheRoot, Path workspace, boolean refresh) {
+        String key = Hashing.sha1().
+                hashString(workspace.toAbsolutePath().normalize().toString(), StandardCharsets.UTF_8).
+                toString();
+        this.directory = cacheRoot.resolve(key);
+        this.refresh = refresh;
+    }
+
+    /**
+     * Reads cached data
+     *
+     * @param name cache entry name
+     * @param type type of data
+     * @return cached data or null if there is no valid cached data or refresh was requested
+     */
+    <T> T read(String name, Type type) {
+        if (refresh) {
+            return null;
+        }
+        Path file = directory.resolve(name);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return JSONUtil.read(reader, type);
+        } catch (IOException | JsonParseException e) {
+            LOGGER.warn("Failed to read cache entry {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Saves data in cache
+     *
+     * @param name cache entry name
+     * @param o    data to save
+     */
+    void write(String name, Object o) {
+        Path file = directory.resolve(name);
+        try {
+            Files.createDirectories(directory);
+            // writing to temporary file first so that concurrent readers never see partial data
+            Path tmp = Files.createTempFile(directory, name, ".tmp");
+            try {
+                try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    JSONUtil.writeCompact(o, writer);
+                }
+                try {
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            LOGGER.debug("Updated cache entry {}", file);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to save cache entry {}", file, e);
+        }
+    }
+}
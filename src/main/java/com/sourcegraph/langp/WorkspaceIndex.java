@@ -0,0 +1,233 @@
+package com.sourcegraph.langp;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Workspace scan result, holds build descriptors and source directory candidates collected in a single pass
+ * so that every build detector may query it without walking the workspace again
+ */
+class WorkspaceIndex {
+
+    static final String MAVEN_DESCRIPTOR = "pom.xml";
+    static final String GRADLE_DESCRIPTOR = "build.gradle";
+    static final String GRADLE_SETTINGS = "settings.gradle";
+    static final String GRADLE_WRAPPER = "gradlew";
+    static final String GRADLE_WRAPPER_WINDOWS = "gradlew.bat";
+    static final String JAVA_DIRECTORY = "java";
+
+    private Path root;
+
+    private List<Path> mavenDescriptors = new ArrayList<>();
+    private List<Path> gradleDescriptors = new ArrayList<>();
+    private List<Path> gradleSettings = new ArrayList<>();
+    private Set<Path> gradleWrappers = new HashSet<>();
+    private List<Path> javaDirectories = new ArrayList<>();
+
+    /**
+     * Listing summary of every scanned directory, keyed by path relative to workspace root
+     */
+    private Map<String, DirectoryEntry> directories = new HashMap<>();
+
+    /**
+     * Number of directories listed during scan (not taken from previous scan results)
+     */
+    private int listedDirectories;
+
+    /**
+     * @param root workspace root
+     */
+    WorkspaceIndex(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    /**
+     * @return workspace root (absolute and normalized)
+     */
+    Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @return all pom.xml files found
+     */
+    Collection<Path> getMavenDescriptors() {
+        return mavenDescriptors;
+    }
+
+    /**
+     * @return all build.gradle files found
+     */
+    Collection<Path> getGradleDescriptors() {
+        return gradleDescriptors;
+    }
+
+    /**
+     * @return all settings.gradle files found
+     */
+    Collection<Path> getGradleSettings() {
+        return gradleSettings;
+    }
+
+    /**
+     * @return all Gradle wrapper scripts found (both Unix and Windows ones)
+     */
+    Set<Path> getGradleWrappers() {
+        return gradleWrappers;
+    }
+
+    /**
+     * @return all "java" directories found
+     */
+    Collection<Path> getJavaDirectories() {
+        return javaDirectories;
+    }
+
+    /**
+     * @return listing summary of every scanned directory, keyed by path relative to workspace root
+     */
+    Map<String, DirectoryEntry> getDirectories() {
+        return directories;
+    }
+
+    /**
+     * @param dir directory (absolute and normalized)
+     * @return directory listing summary or null if directory wasn't scanned
+     */
+    DirectoryEntry getDirectory(Path dir) {
+        return directories.get(key(dir));
+    }
+
+    /**
+     * @return number of directories listed during scan (not taken from previous scan results)
+     */
+    int getListedDirectories() {
+        return listedDirectories;
+    }
+
+    /**
+     * Registers file found during scan
+     *
+     * @param file file to register (absolute and normalized)
+     * @return true if file is of interest and should be kept in directory listing summary
+     */
+    boolean addFile(Path file) {
+        switch (file.getFileName().toString()) {
+            case MAVEN_DESCRIPTOR:
+                mavenDescriptors.add(file);
+                return true;
+            case GRADLE_DESCRIPTOR:
+                gradleDescriptors.add(file);
+                return true;
+            case GRADLE_SETTINGS:
+                gradleSettings.add(file);
+                return true;
+            case GRADLE_WRAPPER:
+            case GRADLE_WRAPPER_WINDOWS:
+                gradleWrappers.add(file);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Registers directory found during scan
+     *
+     * @param dir      directory to register (absolute and normalized)
+     * @param modified directory modification time or -1 if it should not be trusted on subsequent scans
+     * @return directory listing summary to fill
+     */
+    DirectoryEntry addDirectory(Path dir, long modified) {
+        listedDirectories++;
+        return register(dir, modified);
+    }
+
+    /**
+     * Registers directory and files of interest using listing summary made by previous scan
+     *
+     * @param dir   directory to register (absolute and normalized)
+     * @param entry previous directory listing summary
+     */
+    void addDirectory(Path dir, DirectoryEntry entry) {
+        DirectoryEntry copy = register(dir, entry.modified);
+        copy.directories.addAll(entry.directories);
+        for (String file : entry.files) {
+            if (addFile(dir.resolve(file))) {
+                copy.files.add(file);
+            }
+        }
+    }
+
+    /**
+     * Adds all the entries collected by another (partial) index
+     *
+     * @param other index to merge
+     */
+    void merge(WorkspaceIndex other) {
+        mavenDescriptors.addAll(other.mavenDescriptors);
+        gradleDescriptors.addAll(other.gradleDescriptors);
+        gradleSettings.addAll(other.gradleSettings);
+        gradleWrappers.addAll(other.gradleWrappers);
+        javaDirectories.addAll(other.javaDirectories);
+        directories.putAll(other.directories);
+        listedDirectories += other.listedDirectories;
+    }
+
+    /**
+     * Sorts collected entries so the result does not depend on the order file system returned them in
+     */
+    void sort() {
+        Collections.sort(mavenDescriptors);
+        Collections.sort(gradleDescriptors);
+        Collections.sort(gradleSettings);
+        Collections.sort(javaDirectories);
+    }
+
+    /**
+     * @param dir      directory to register (absolute and normalized)
+     * @param modified directory modification time
+     * @return new directory listing summary
+     */
+    private DirectoryEntry register(Path dir, long modified) {
+        Path name = dir.getFileName();
+        if (name != null && JAVA_DIRECTORY.equals(name.toString())) {
+            javaDirectories.add(dir);
+        }
+        DirectoryEntry entry = new DirectoryEntry(modified);
+        directories.put(key(dir), entry);
+        return entry;
+    }
+
+    /**
+     * @param dir directory (absolute and normalized)
+     * @return directory key, path relative to workspace root
+     */
+    private String key(Path dir) {
+        return root.relativize(dir).toString();
+    }
+
+    /**
+     * Directory listing summary, keeps only names of files of interest and names of subdirectories to scan
+     */
+    static class DirectoryEntry {
+
+        long modified;
+        List<String> files = new ArrayList<>();
+        List<String> directories = new ArrayList<>();
+
+        /**
+         * @param modified directory modification time or -1 if it should not be trusted on subsequent scans
+         */
+        DirectoryEntry(long modified) {
+            this.modified = modified;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.sourcegraph.langp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class GradleBuildRootsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void includeWithMultipleAndMultiLineArguments() throws Exception {
+        Path workspace = folder.getRoot().toPath();
+        writeSettings("root", "include 'a', \"b\"\n" +
+                "include(\n" +
+                "    'c',\n" +
+                "    'd'\n" +
+                ")\n" +
+                "includeFlat 'e', 'f'\n");
+        writeBuildFiles("root", "root/a", "root/b", "root/c", "root/d", "e", "f", "root/g");
+        Map<String, Set<String>> expected = new TreeMap<>();
+        expected.put("root/build.gradle", files("root", "root/a", "root/b", "root/c", "root/d", "e", "f"));
+        expected.put("root/g/build.gradle", files("root/g"));
+        assertEquals(expected, getBuildRoots(workspace));
+    }
+
+    @Test
+    public void nestedProjectPathIncludesAllLevels() throws Exception {
+        Path workspace = folder.getRoot().toPath();
+        writeSettings("", "include ':a:b:c'\n");
+        writeBuildFiles("", "a", "a/b", "a/b/c", "a/x");
+        Map<String, Set<String>> expected = new TreeMap<>();
+        expected.put("build.gradle", files("", "a", "a/b", "a/b/c"));
+        expected.put("a/x/build.gradle", files("a/x"));
+        assertEquals(expected, getBuildRoots(workspace));
+    }
+
+    @Test
+    public void projectDirOverrideMakesAllBuildFilesMembers() throws Exception {
+        Path workspace = folder.getRoot().toPath();
+        writeSettings("", "include 'x'\n" +
+                "project(':x').projectDir = new File(settingsDir, 'libs/x')\n");
+        writeBuildFiles("", "libs/x");
+        Map<String, Set<String>> expected = new TreeMap<>();
+        expected.put("build.gradle", files("", "libs/x"));
+        assertEquals(expected, getBuildRoots(workspace));
+    }
+
+    @Test
+    public void ownWrapperDenotesSeparateBuild() throws Exception {
+        Path workspace = folder.getRoot().toPath();
+        writeSettings("", "include 'listed'\n" +
+                "project(':listed').projectDir = file('listed')\n");
+        writeBuildFiles("", "listed", "standalone", "standalone/sub", "other");
+        write("listed/" + WorkspaceIndex.GRADLE_WRAPPER, "");
+        write("listed/" + WorkspaceIndex.GRADLE_WRAPPER_WINDOWS, "");
+        write("standalone/" + WorkspaceIndex.GRADLE_WRAPPER, "");
+        write("standalone/" + WorkspaceIndex.GRADLE_WRAPPER_WINDOWS, "");
+        Map<String, Set<String>> expected = new TreeMap<>();
+        expected.put("build.gradle", files("", "listed", "other"));
+        expected.put("standalone/build.gradle", files("standalone"));
+        expected.put("standalone/sub/build.gradle", files("standalone/sub"));
+        assertEquals(expected, getBuildRoots(workspace));
+    }
+
+    @Test
+    public void commentMarkersInsideLiteralsAreSkipped() throws Exception {
+        Path workspace = folder.getRoot().toPath();
+        writeSettings("", "def libs = fileTree(dir: 'libs/*')\n" +
+                "include 'a' // include 'x'\n" +
+                "/* include 'y' */\n" +
+                "println \"http://example.com\"; include 'b'\n" +
+                "include 'c'\n");
+        writeBuildFiles("", "a", "b", "c", "x", "y");
+        Map<String, Set<String>> expected = new TreeMap<>();
+        expected.put("build.gradle", files("", "a", "b", "c"));
+        expected.put("x/build.gradle", files("x"));
+        expected.put("y/build.gradle", files("y"));
+        assertEquals(expected, getBuildRoots(workspace));
+    }
+
+    private void writeSettings(String directory, String content) throws IOException {
+        write(path(directory, WorkspaceIndex.GRADLE_SETTINGS), content);
+    }
+
+    private void writeBuildFiles(String... directories) throws IOException {
+        for (String directory : directories) {
+            write(path(directory, WorkspaceIndex.GRADLE_DESCRIPTOR), "");
+        }
+    }
+
+    private void write(String file, String content) throws IOException {
+        Path path = folder.getRoot().toPath().resolve(file);
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String path(String directory, String file) {
+        return directory.isEmpty() ? file : directory + '/' + file;
+    }
+
+    private static Set<String> files(String... directories) {
+        Set<String> ret = new TreeSet<>();
+        for (String directory : directories) {
+            ret.add(path(directory, WorkspaceIndex.GRADLE_DESCRIPTOR));
+        }
+        return ret;
+    }
+
+    /**
+     * @param workspace workspace root
+     * @return build root's file -> build files, relative to workspace
+     */
+    private static Map<String, Set<String>> getBuildRoots(Path workspace) throws IOException {
+        WorkspaceIndex index = ScanUtil.scanWorkspace(workspace, 1, null);
+        Path root = index.getRoot();
+        Map<String, Set<String>> ret = new TreeMap<>();
+        for (Map.Entry<Path, Collection<Path>> entry :
+                GradleBuildRoots.getBuildRoots(index, index.getGradleDescriptors()).entrySet()) {
+            Set<String> files = new TreeSet<>();
+            for (Path file : entry.getValue()) {
+                files.add(root.relativize(file).toString());
+            }
+            ret.put(root.relativize(entry.getKey()).toString(), files);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,265 @@
+package com.sourcegraph.langp;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static com.sourcegraph.langp.MavenFixtures.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Checks that configurations written by incremental run are the same as written by full run over the same tree
+ */
+public class IncrementalPrepareTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String ROOT = "<parent><groupId>g</groupId><artifactId>root</artifactId>" +
+            "<version>1</version></parent>";
+
+    private Path repository;
+
+    @Before
+    public void setUp() throws IOException {
+        // runs are offline and never see user's local repository
+        repository = folder.newFolder("repository").toPath();
+        System.setProperty(MavenConfiguration.LOCAL_REPOSITORY_PROPERTY, repository.toString());
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(MavenConfiguration.LOCAL_REPOSITORY_PROPERTY);
+    }
+
+    @Test
+    public void incrementalRunMatchesFullRun() throws Exception {
+        checkIncrementalRun(ConfigurationWriter.FORMAT_STANDALONE);
+    }
+
+    @Test
+    public void incrementalPooledRunMatchesFullRun() throws Exception {
+        checkIncrementalRun(ConfigurationWriter.FORMAT_POOLED);
+    }
+
+    private void checkIncrementalRun(String format) throws Exception {
+        Path workspace = folder.newFolder("workspace").toPath();
+        Path cacheDir = folder.newFolder("cache").toPath();
+        writePom(workspace, "root", "", "pom", "<modules><module>a</module><module>b</module><module>c</module>" +
+                "<module>d</module></modules>", "");
+        writePom(workspace.resolve("a"), "a", ROOT, "jar", "", "");
+        writePom(workspace.resolve("b"), "b", ROOT, "jar", "", dependency("a"));
+        writePom(workspace.resolve("c"), "c", ROOT, "jar", "", dependency("b"));
+        writePom(workspace.resolve("d"), "d", ROOT, "jar", "", "");
+        for (String module : new String[]{"a", "b", "c", "d"}) {
+            Files.createDirectories(workspace.resolve(module).resolve("src/main/java"));
+        }
+
+        prepare(workspace, cacheDir, format, false, null);
+        Map<String, String> before = readConfigurations(workspace);
+
+        // a's sources move, b and c see a's sources through their dependencies
+        Files.createDirectories(workspace.resolve("a/src/gen/java"));
+        Path changed = writePom(workspace.resolve("a"),
+                "a",
+                ROOT,
+                "jar",
+                "<build><sourceDirectory>src/gen/java</sourceDirectory></build>",
+                "");
+        prepare(workspace, cacheDir, format, false, Collections.singleton(changed));
+
+        // d is not used by other modules, the rest keep their configurations
+        Files.createDirectories(workspace.resolve("d/src/gen/java"));
+        changed = writePom(workspace.resolve("d"),
+                "d",
+                ROOT,
+                "jar",
+                "<build><sourceDirectory>src/gen/java</sourceDirectory></build>",
+                "");
+        prepare(workspace, cacheDir, format, false, Collections.singleton(changed));
+        Map<String, String> incremental = readConfigurations(workspace);
+
+        prepare(workspace, cacheDir, format, true, null);
+        Map<String, String> full = readConfigurations(workspace);
+
+        assertNotEquals(before, full);
+        assertEquals(full, incremental);
+    }
+
+    @Test
+    public void incrementalRunSeesInheritedDependencies() throws Exception {
+        Path workspace = folder.newFolder("workspace").toPath();
+        Path cacheDir = folder.newFolder("cache").toPath();
+        // there is no aggregator, e inherits dependency on a from its parent
+        writePom(workspace.resolve("parent"), "parent", "", "pom", "", dependency("a"));
+        writePom(workspace.resolve("a"), "a", "", "jar", "", "");
+        String parent = "<parent><groupId>g</groupId><artifactId>parent</artifactId><version>1</version>" +
+                "<relativePath>../parent/pom.xml</relativePath></parent>";
+        writePom(workspace.resolve("e"), "e", parent, "jar", "", "");
+        for (String module : new String[]{"a", "e"}) {
+            Files.createDirectories(workspace.resolve(module).resolve("src/main/java"));
+        }
+        String format = ConfigurationWriter.FORMAT_STANDALONE;
+        prepare(workspace, cacheDir, format, false, null);
+
+        Files.createDirectories(workspace.resolve("e/src/gen/java"));
+        Path changed = writePom(workspace.resolve("e"),
+                "e",
+                parent,
+                "jar",
+                "<build><sourceDirectory>src/gen/java</sourceDirectory></build>",
+                "");
+        prepare(workspace, cacheDir, format, false, Collections.singleton(changed));
+        Map<String, String> incremental = readConfigurations(workspace);
+
+        prepare(workspace, cacheDir, format, true, null);
+        assertEquals(readConfigurations(workspace), incremental);
+    }
+
+    @Test
+    public void incrementalRunSeesImportedBomChanges() throws Exception {
+        Path workspace = folder.newFolder("workspace").toPath();
+        Path cacheDir = folder.newFolder("cache").toPath();
+        install(repository, "ext", "x", "1");
+        install(repository, "ext", "x", "2");
+        // there is neither aggregator nor parent, u takes version of x from bom
+        writePom(workspace.resolve("bom"), "bom", "", "pom", dependencyManagement(dependency("ext", "x", "1")), "");
+        String bom = "<dependency><groupId>g</groupId><artifactId>bom</artifactId><version>1</version>" +
+                "<type>pom</type><scope>import</scope></dependency>";
+        writePom(workspace.resolve("u"),
+                "u",
+                "",
+                "jar",
+                dependencyManagement(bom),
+                "<dependency><groupId>ext</groupId><artifactId>x</artifactId></dependency>");
+        Files.createDirectories(workspace.resolve("u/src/main/java"));
+        String format = ConfigurationWriter.FORMAT_STANDALONE;
+        prepare(workspace, cacheDir, format, false, null);
+        Map<String, String> before = readConfigurations(workspace);
+
+        Path changed = writePom(workspace.resolve("bom"),
+                "bom",
+                "",
+                "pom",
+                dependencyManagement(dependency("ext", "x", "2")),
+                "");
+        prepare(workspace, cacheDir, format, false, Collections.singleton(changed));
+        Map<String, String> incremental = readConfigurations(workspace);
+
+        prepare(workspace, cacheDir, format, true, null);
+        Map<String, String> full = readConfigurations(workspace);
+
+        assertNotEquals(before, full);
+        assertEquals(full, incremental);
+    }
+
+    @Test
+    public void incrementalRunSeesRemovedProjects() throws Exception {
+        Path workspace = folder.newFolder("workspace").toPath();
+        Path cacheDir = folder.newFolder("cache").toPath();
+        writePom(workspace, "root", "", "pom", "<modules><module>a</module><module>b</module></modules>", "");
+        writePom(workspace.resolve("a"), "a", ROOT, "jar", "", "");
+        writePom(workspace.resolve("b"), "b", ROOT, "jar", "", dependency("a"));
+        for (String module : new String[]{"a", "b"}) {
+            Files.createDirectories(workspace.resolve(module).resolve("src/main/java"));
+        }
+        String format = ConfigurationWriter.FORMAT_STANDALONE;
+        prepare(workspace, cacheDir, format, false, null);
+        Map<String, String> before = readConfigurations(workspace);
+
+        // b no longer sees a's sources, dependency on a becomes external one
+        Path removed = workspace.resolve("a").resolve(WorkspaceIndex.MAVEN_DESCRIPTOR);
+        Files.delete(removed);
+        prepare(workspace, cacheDir, format, false, Collections.singleton(removed));
+        Map<String, String> incremental = readConfigurations(workspace);
+
+        prepare(workspace, cacheDir, format, true, null);
+        Map<String, String> full = readConfigurations(workspace);
+
+        assertNotEquals(before, full);
+        assertEquals(full, incremental);
+    }
+
+    private static void prepare(Path workspace,
+                                Path cacheDir,
+                                String format,
+                                boolean refresh,
+                                Collection<Path> changed) throws Exception {
+        PrepareCommand prepare = newPrepareCommand(workspace, cacheDir);
+        prepare.configFormat = format;
+        prepare.offline = true;
+        prepare.refresh = refresh;
+        prepare.changedDescriptors = changed;
+        prepare.prepare();
+    }
+
+    /**
+     * @param workspace workspace root
+     * @return configuration file -> configuration, IDs of pooled configurations are replaced with paths they refer to
+     * because incremental run may assign different IDs
+     */
+    private static Map<String, String> readConfigurations(Path workspace) throws IOException {
+        Map<String, String> ret = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(workspace)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().equals(ConfigurationWriter.CONFIGURATION_FILE)) {
+                    ret.put(workspace.relativize(file).toString(), readConfiguration(file));
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static String readConfiguration(Path file) throws IOException {
+        JsonObject configuration = read(file);
+        if (!configuration.has("index")) {
+            return configuration.toString();
+        }
+        JsonObject index = read(file.getParent().resolve(configuration.get("index").getAsString()));
+        JsonArray entries = index.getAsJsonArray("entries");
+        JsonObject ret = new JsonObject();
+        if (configuration.has("sources")) {
+            ret.add("sources", resolve(configuration.getAsJsonArray("sources"), entries));
+        }
+        if (configuration.has("classPath")) {
+            JsonArray classPath = index.getAsJsonArray("classPaths").
+                    get(configuration.get("classPath").getAsInt()).
+                    getAsJsonArray();
+            ret.add("classPath", resolve(classPath, entries));
+        }
+        if (configuration.has("outputDirectory")) {
+            ret.add("outputDirectory", configuration.get("outputDirectory"));
+        }
+        return ret.toString();
+    }
+
+    private static JsonObject read(Path file) throws IOException {
+        return new JsonParser().parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).
+                getAsJsonObject();
+    }
+
+    private static JsonArray resolve(JsonArray ids, JsonArray entries) {
+        JsonArray ret = new JsonArray();
+        for (JsonElement id : ids) {
+            ret.add(entries.get(id.getAsInt()));
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,259 @@
+package com.sourcegraph.langp;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
+import org.eclipse.aether.AbstractRepositoryListener;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryEvent;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.graph.DefaultDependencyNode;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.transfer.AbstractTransferListener;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.sourcegraph.langp.MavenFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * Resolves artifacts from file:// repository that stands in for remote one
+ */
+public class MavenArtifactDownloaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static RepositorySystem repositorySystem = MavenConfiguration.newRepositorySystem();
+
+    private Path remote;
+    private Path local;
+    private DefaultRepositorySystemSession session;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        remote = folder.newFolder("remote").toPath();
+        local = folder.newFolder("local").toPath();
+        session = MavenRepositorySystemUtils.newSession();
+        session.setLocalRepositoryManager(repositorySystem.newLocalRepositoryManager(session,
+                new LocalRepository(local.toFile())));
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        System.clearProperty(MavenConfiguration.LOCAL_REPOSITORY_PROPERTY);
+    }
+
+    @Test
+    public void sameArtifactIsResolvedOnce() throws Exception {
+        install(remote, "g", "dedupe", "1");
+        AtomicInteger downloads = new AtomicInteger();
+        session.setRepositoryListener(new AbstractRepositoryListener() {
+            @Override
+            public void artifactDownloading(RepositoryEvent event) {
+                downloads.incrementAndGet();
+            }
+        });
+        try (MavenArtifactDownloader downloader = newDownloader(4)) {
+            CompletableFuture<Artifact> first = downloader.download(node("dedupe", "1"));
+            CompletableFuture<Artifact> second = downloader.download(node("dedupe", "1"));
+            assertSame(first, second);
+            assertNotNull(first.join().getFile());
+        }
+        assertEquals(1, downloads.get());
+    }
+
+    @Test
+    public void downloadsPerRepositoryAreLimited() throws Exception {
+        AtomicInteger transfers = new AtomicInteger();
+        AtomicInteger maxTransfers = new AtomicInteger();
+        session.setTransferListener(new AbstractTransferListener() {
+            @Override
+            public void transferStarted(TransferEvent event) {
+                maxTransfers.accumulateAndGet(transfers.incrementAndGet(), Math::max);
+                try {
+                    // keeping transfer open so that other workers try to start theirs
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void transferSucceeded(TransferEvent event) {
+                transfers.decrementAndGet();
+            }
+
+            @Override
+            public void transferFailed(TransferEvent event) {
+                transfers.decrementAndGet();
+            }
+        });
+        List<CompletableFuture<Artifact>> futures = new ArrayList<>();
+        try (MavenArtifactDownloader downloader = newDownloader(2)) {
+            for (int i = 0; i < 8; i++) {
+                install(remote, "g", "limited" + i, "1");
+                futures.add(downloader.download(node("limited" + i, "1")));
+            }
+            for (CompletableFuture<Artifact> future : futures) {
+                assertNotNull(future.join().getFile());
+            }
+        }
+        assertTrue("max concurrent transfers " + maxTransfers.get(), maxTransfers.get() <= 2);
+    }
+
+    @Test
+    public void cancelledDownloadStopsWaitingForPermit() throws Exception {
+        install(remote, "g", "held", "1");
+        install(remote, "g", "waiting", "1");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch waiting = new CountDownLatch(1);
+        CountDownLatch exited = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        session.setRepositoryListener(new AbstractRepositoryListener() {
+            @Override
+            public void artifactDownloading(RepositoryEvent event) {
+                if (event.getArtifact().getArtifactId().equals("waiting")) {
+                    waiting.countDown();
+                }
+            }
+        });
+        session.setTransferListener(new AbstractTransferListener() {
+            @Override
+            public void transferInitiated(TransferEvent event) {
+                if (event.getResource().getResourceName().contains("waiting")) {
+                    // the only permit is still held, worker gets here only if limiter let it go without one
+                    interrupted.set(Thread.currentThread().isInterrupted());
+                    exited.countDown();
+                }
+            }
+
+            @Override
+            public void transferStarted(TransferEvent event) {
+                if (event.getResource().getResourceName().contains("held")) {
+                    started.countDown();
+                    // transfer that ignores interruption keeps the only permit
+                    while (true) {
+                        try {
+                            release.await();
+                            return;
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                }
+            }
+        });
+        MavenArtifactDownloader downloader = newDownloader(1);
+        try {
+            downloader.download(node("held", "1"));
+            started.await();
+            downloader.download(node("waiting", "1"));
+            // session's listener is notified before limiter blocks
+            waiting.await();
+            downloader.close();
+            // worker waiting for permit gives up while the one holding it is still running
+            assertTrue(exited.await(5, TimeUnit.SECONDS));
+            assertTrue(interrupted.get());
+        } finally {
+            release.countDown();
+            downloader.close();
+        }
+    }
+
+    @Test
+    public void resolvedFilesAreNotSharedBetweenLocalRepositories() throws Exception {
+        install(remote, "g", "relocated", "1");
+        try (MavenArtifactDownloader downloader = newDownloader(4)) {
+            assertTrue(downloader.download(node("relocated", "1")).join().getFile().toPath().startsWith(local));
+        }
+        Path otherLocal = folder.newFolder("other-local").toPath();
+        session.setLocalRepositoryManager(repositorySystem.newLocalRepositoryManager(session,
+                new LocalRepository(otherLocal.toFile())));
+        try (MavenArtifactDownloader downloader = newDownloader(4)) {
+            assertTrue(downloader.download(node("relocated", "1")).join().getFile().toPath().startsWith(otherLocal));
+        }
+    }
+
+    @Test
+    public void missingArtifactHasNoFile() throws Exception {
+        try (MavenArtifactDownloader downloader = newDownloader(4)) {
+            Artifact artifact = downloader.download(node("missing", "1")).join();
+            assertEquals("missing", artifact.getArtifactId());
+            assertNull(artifact.getFile());
+        }
+    }
+
+    @Test
+    public void partialClasspathIsNotCached() throws Exception {
+        install(remote, "g", "present", "1");
+        Path workspace = folder.newFolder("workspace").toPath();
+        Files.createDirectories(workspace.resolve("src/main/java"));
+        // file:// repository replaces central, so that nothing is fetched from network
+        writePom(workspace,
+                "w",
+                "",
+                "jar",
+                "<repositories><repository><id>central</id><url>" + remote.toUri() + "</url></repository>" +
+                        "</repositories>",
+                dependency("present") + dependency("absent"));
+        Path cacheDir = folder.newFolder("cache").toPath();
+        System.setProperty(MavenConfiguration.LOCAL_REPOSITORY_PROPERTY, local.toString());
+
+        newPrepareCommand(workspace, cacheDir).prepare();
+        assertEquals(1, readClassPath(workspace).size());
+
+        // if partial classpath was cached, second run would not try to resolve absent artifact again
+        install(remote, "g", "absent", "1");
+        newPrepareCommand(workspace, cacheDir).prepare();
+        assertEquals(2, readClassPath(workspace).size());
+    }
+
+    private MavenArtifactDownloader newDownloader(int downloadsPerRepository) {
+        return new MavenArtifactDownloader(repositorySystem,
+                session,
+                executor,
+                new MavenArtifactDownloader.RepositoryLimiter(downloadsPerRepository));
+    }
+
+    private DependencyNode node(String artifactId, String version) {
+        DefaultDependencyNode ret = new DefaultDependencyNode(new Dependency(
+                new DefaultArtifact("g", artifactId, "jar", version), "compile"));
+        ret.setRepositories(Collections.singletonList(
+                new RemoteRepository.Builder("test", "default", remote.toUri().toString()).build()));
+        return ret;
+    }
+
+    private static JsonArray readClassPath(Path workspace) throws IOException {
+        String configuration = new String(Files.readAllBytes(workspace.resolve(ConfigurationWriter.CONFIGURATION_FILE)),
+                StandardCharsets.UTF_8);
+        return new JsonParser().parse(configuration).getAsJsonObject().getAsJsonArray("classPath");
+    }
+}
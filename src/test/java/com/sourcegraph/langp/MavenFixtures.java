@@ -0,0 +1,88 @@
+package com.sourcegraph.langp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Workspace POMs, repository artifacts and prepare commands shared by tests
+ */
+final class MavenFixtures {
+
+    private MavenFixtures() {
+    }
+
+    /**
+     * @return dependency on workspace project (group "g", version 1)
+     */
+    static String dependency(String artifactId) {
+        return dependency("g", artifactId, "1");
+    }
+
+    static String dependency(String groupId, String artifactId, String version) {
+        return "<dependency><groupId>" + groupId + "</groupId><artifactId>" + artifactId + "</artifactId>" +
+                "<version>" + version + "</version></dependency>";
+    }
+
+    static String dependencyManagement(String dependencies) {
+        return "<dependencyManagement><dependencies>" + dependencies + "</dependencies></dependencyManagement>";
+    }
+
+    /**
+     * Writes pom.xml of workspace project (group "g", version 1)
+     *
+     * @param directory    project directory
+     * @param artifactId   project's artifact ID
+     * @param parent       parent element or empty string
+     * @param packaging    project's packaging
+     * @param extra        elements to put before dependencies
+     * @param dependencies dependency elements
+     * @return pom.xml path
+     * @throws IOException
+     */
+    static Path writePom(Path directory,
+                         String artifactId,
+                         String parent,
+                         String packaging,
+                         String extra,
+                         String dependencies) throws IOException {
+        Files.createDirectories(directory);
+        String pom = "<project xmlns=\"http://maven.apache.org/POM/4.0.0\"><modelVersion>4.0.0</modelVersion>" +
+                parent +
+                "<groupId>g</groupId><artifactId>" + artifactId + "</artifactId><version>1</version>" +
+                "<packaging>" + packaging + "</packaging>" +
+                extra +
+                "<dependencies>" + dependencies + "</dependencies></project>";
+        Path ret = directory.resolve(WorkspaceIndex.MAVEN_DESCRIPTOR);
+        Files.write(ret, pom.getBytes(StandardCharsets.UTF_8));
+        return ret;
+    }
+
+    /**
+     * Puts empty artifact and its POM into repository, the same layout serves as local and as file:// remote one
+     *
+     * @param repository repository root
+     */
+    static void install(Path repository, String groupId, String artifactId, String version) throws IOException {
+        Path directory = repository.resolve(groupId).resolve(artifactId).resolve(version);
+        Files.createDirectories(directory);
+        String pom = "<project xmlns=\"http://maven.apache.org/POM/4.0.0\"><modelVersion>4.0.0</modelVersion>" +
+                "<groupId>" + groupId + "</groupId><artifactId>" + artifactId + "</artifactId><version>" + version +
+                "</version></project>";
+        Files.write(directory.resolve(artifactId + '-' + version + ".pom"), pom.getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve(artifactId + '-' + version + ".jar"), new byte[0]);
+    }
+
+    /**
+     * @param workspace workspace to prepare
+     * @param cacheDir  persistent caches directory
+     * @return command that prepares single workspace, callers adjust other options
+     */
+    static PrepareCommand newPrepareCommand(Path workspace, Path cacheDir) {
+        PrepareCommand ret = new PrepareCommand();
+        ret.workspaces.add(workspace.toString());
+        ret.cacheDir = cacheDir.toString();
+        return ret;
+    }
+}
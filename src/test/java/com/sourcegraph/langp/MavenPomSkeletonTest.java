@@ -0,0 +1,93 @@
+package com.sourcegraph.langp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class MavenPomSkeletonTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void projectPropertiesAreSubstituted() throws Exception {
+        MavenPomSkeleton skeleton = read("<groupId>g</groupId><artifactId>a</artifactId><version>1</version>" +
+                "<dependencies>" +
+                "<dependency><groupId>${project.groupId}</groupId><artifactId>b</artifactId></dependency>" +
+                "<dependency><groupId>${pom.groupId}</groupId><artifactId>${project.artifactId}-c</artifactId>" +
+                "</dependency>" +
+                "</dependencies>");
+        assertEquals("g/a", skeleton.id());
+        assertEquals(Arrays.asList("g/b", "g/a-c"), skeleton.dependencies);
+        assertFalse(skeleton.incomplete);
+    }
+
+    @Test
+    public void coordinatesAreInheritedFromParent() throws Exception {
+        MavenPomSkeleton skeleton = read("<parent><groupId>p</groupId><artifactId>parent</artifactId>" +
+                "<version>2</version></parent><artifactId>a</artifactId>" +
+                "<dependencies><dependency><groupId>${project.groupId}</groupId><artifactId>b</artifactId>" +
+                "<version>${project.version}</version></dependency></dependencies>");
+        assertEquals("p/a", skeleton.id());
+        assertEquals("2", skeleton.version);
+        assertEquals("p/parent", skeleton.parentId());
+        assertEquals(Collections.singletonList("p/b"), skeleton.dependencies);
+        assertFalse(skeleton.incomplete);
+    }
+
+    @Test
+    public void profilesMakeSkeletonIncomplete() throws Exception {
+        MavenPomSkeleton skeleton = read("<groupId>g</groupId><artifactId>a</artifactId><version>1</version>" +
+                "<profiles><profile><id>p</id></profile></profiles>");
+        assertTrue(skeleton.incomplete);
+    }
+
+    @Test
+    public void unresolvedPropertiesMakeSkeletonIncomplete() throws Exception {
+        assertTrue(read("<groupId>g</groupId><artifactId>a</artifactId><version>1</version>" +
+                "<dependencies><dependency><groupId>${other.groupId}</groupId><artifactId>b</artifactId>" +
+                "</dependency></dependencies>").incomplete);
+        assertTrue(read("<groupId>g</groupId><artifactId>a</artifactId><version>1</version>" +
+                "<modules><module>${module}</module></modules>").incomplete);
+        assertTrue(read("<groupId>${group}</groupId><artifactId>a</artifactId><version>1</version>").incomplete);
+        assertTrue(read("<groupId>g</groupId><artifactId>a</artifactId><version>1</version>" +
+                "<dependencyManagement><dependencies><dependency><groupId>${bom.groupId}</groupId>" +
+                "<artifactId>bom</artifactId><type>pom</type><scope>import</scope></dependency></dependencies>" +
+                "</dependencyManagement>").incomplete);
+    }
+
+    @Test
+    public void onlyDirectDependenciesAreCounted() throws Exception {
+        MavenPomSkeleton skeleton = read("<groupId>g</groupId><artifactId>a</artifactId><version>1</version>" +
+                "<dependencyManagement><dependencies>" +
+                "<dependency><groupId>g</groupId><artifactId>managed</artifactId></dependency>" +
+                "<dependency><groupId>g</groupId><artifactId>bom</artifactId><type>pom</type>" +
+                "<scope>import</scope></dependency>" +
+                "</dependencies></dependencyManagement>" +
+                "<build><plugins><plugin><artifactId>p</artifactId><dependencies>" +
+                "<dependency><groupId>g</groupId><artifactId>plugin-dependency</artifactId></dependency>" +
+                "</dependencies></plugin></plugins></build>" +
+                "<dependencies><dependency><groupId>g</groupId><artifactId>direct</artifactId>" +
+                "<exclusions><exclusion><groupId>g</groupId><artifactId>excluded</artifactId></exclusion>" +
+                "</exclusions></dependency></dependencies>");
+        assertEquals(Collections.singletonList("g/direct"), skeleton.dependencies);
+        assertEquals(Collections.singletonList("g/bom"), skeleton.imports);
+        assertFalse(skeleton.incomplete);
+    }
+
+    private MavenPomSkeleton read(String content) throws Exception {
+        Path file = folder.newFolder().toPath().resolve(WorkspaceIndex.MAVEN_DESCRIPTOR);
+        String pom = "<project xmlns=\"http://maven.apache.org/POM/4.0.0\"><modelVersion>4.0.0</modelVersion>" +
+                content + "</project>";
+        Files.write(file, pom.getBytes(StandardCharsets.UTF_8));
+        return MavenPomSkeleton.read(file);
+    }
+}
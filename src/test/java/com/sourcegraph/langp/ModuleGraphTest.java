@@ -0,0 +1,96 @@
+package com.sourcegraph.langp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class ModuleGraphTest {
+
+    @Test
+    public void closureOfUnknownModuleIsModuleItself() {
+        ModuleGraph<String> graph = new ModuleGraph<>();
+        assertEquals(Collections.singletonList("a"), graph.getClosure("a"));
+    }
+
+    @Test
+    public void closureFollowsDeclarationOrder() {
+        ModuleGraph<String> graph = new ModuleGraph<>();
+        graph.addDependency("a", "b");
+        graph.addDependency("a", "c");
+        graph.addDependency("b", "d");
+        graph.addDependency("c", "d");
+        assertEquals(Arrays.asList("a", "b", "d", "c"), graph.getClosure("a"));
+        assertEquals(Arrays.asList("c", "d"), graph.getClosure("c"));
+        assertEquals(Collections.singletonList("d"), graph.getClosure("d"));
+    }
+
+    @Test
+    public void closureOfCycle() {
+        ModuleGraph<String> graph = new ModuleGraph<>();
+        graph.addDependency("a", "b");
+        graph.addDependency("b", "c");
+        graph.addDependency("c", "a");
+        graph.addDependency("c", "d");
+        assertEquals(Arrays.asList("a", "b", "c", "d"), graph.getClosure("a"));
+        assertEquals(Arrays.asList("b", "c", "a", "d"), graph.getClosure("b"));
+        assertEquals(Arrays.asList("c", "a", "b", "d"), graph.getClosure("c"));
+    }
+
+    @Test
+    public void closureOfSelfDependency() {
+        ModuleGraph<String> graph = new ModuleGraph<>();
+        graph.addDependency("a", "a");
+        graph.addDependency("a", "b");
+        assertEquals(Arrays.asList("a", "b"), graph.getClosure("a"));
+    }
+
+    @Test
+    public void closureThroughCycleReachedFromOutside() {
+        ModuleGraph<String> graph = new ModuleGraph<>();
+        graph.addDependency("x", "a");
+        graph.addDependency("a", "b");
+        graph.addDependency("b", "a");
+        graph.addDependency("b", "y");
+        assertEquals(Arrays.asList("x", "a", "b", "y"), graph.getClosure("x"));
+        assertEquals(Arrays.asList("b", "a", "y"), graph.getClosure("b"));
+    }
+
+    @Test
+    public void closureIsRecomputedAfterModification() {
+        ModuleGraph<String> graph = new ModuleGraph<>();
+        graph.addDependency("a", "b");
+        assertEquals(Arrays.asList("a", "b"), graph.getClosure("a"));
+        graph.addDependency("b", "c");
+        assertEquals(Arrays.asList("a", "b", "c"), graph.getClosure("a"));
+    }
+
+    @Test
+    public void affectedIncludesTransitiveDependents() {
+        ModuleGraph<String> graph = new ModuleGraph<>();
+        graph.addDependency("b", "a");
+        graph.addDependency("c", "b");
+        graph.addDependency("d", "c");
+        graph.addModule("e");
+        assertEquals(new HashSet<>(Arrays.asList("b", "c", "d")), graph.getAffected(Collections.singleton("b")));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c", "d")), graph.getAffected(Collections.singleton("a")));
+        assertEquals(Collections.singleton("e"), graph.getAffected(Collections.singleton("e")));
+    }
+
+    @Test
+    public void affectedOfCycle() {
+        ModuleGraph<String> graph = new ModuleGraph<>();
+        graph.addDependency("a", "b");
+        graph.addDependency("b", "c");
+        graph.addDependency("c", "a");
+        graph.addDependency("d", "c");
+        graph.addDependency("b", "e");
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c", "d")), graph.getAffected(Collections.singleton("a")));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c", "d", "e")),
+                graph.getAffected(Collections.singleton("e")));
+        assertEquals(Collections.singleton("d"), graph.getAffected(Collections.singleton("d")));
+    }
+}
@@ -0,0 +1,123 @@
+package com.sourcegraph.langp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that scan index kept in workspace cache is revalidated by directory modification time
+ */
+public class ScanUtilTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Modification time old enough to be trusted by next scan
+     */
+    private static final FileTime OLD = FileTime.fromMillis(System.currentTimeMillis() - 3600 * 1000);
+
+    private Path workspace;
+    private WorkspaceCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        workspace = folder.newFolder("workspace").toPath();
+        cache = new WorkspaceCache(folder.newFolder("cache").toPath(), workspace, false);
+    }
+
+    @Test
+    public void unchangedDirectoriesAreNotListedAgain() throws Exception {
+        createFiles("a/pom.xml", "b/pom.xml");
+        touch(OLD, "", "a", "b");
+        assertEquals(Arrays.asList("a/pom.xml", "b/pom.xml"), scan());
+
+        WorkspaceIndex index = ScanUtil.scanWorkspace(workspace, 2, cache);
+        assertEquals(0, index.getListedDirectories());
+        assertEquals(2, index.getMavenDescriptors().size());
+    }
+
+    @Test
+    public void changedDirectoryIsListedAgain() throws Exception {
+        createFiles("a/pom.xml", "b/pom.xml");
+        touch(OLD, "", "a", "b");
+        assertEquals(Arrays.asList("a/pom.xml", "b/pom.xml"), scan());
+
+        createFiles("b/build.gradle");
+        touch(FileTime.fromMillis(OLD.toMillis() + 1000), "b");
+        assertEquals(Arrays.asList("a/pom.xml", "b/build.gradle", "b/pom.xml"), scan());
+    }
+
+    @Test
+    public void removedDirectoryIsDropped() throws Exception {
+        createFiles("a/pom.xml", "b/c/pom.xml");
+        touch(OLD, "", "a", "b", "b/c");
+        assertEquals(Arrays.asList("a/pom.xml", "b/c/pom.xml"), scan());
+
+        Files.delete(workspace.resolve("b/c/pom.xml"));
+        Files.delete(workspace.resolve("b/c"));
+        touch(FileTime.fromMillis(OLD.toMillis() + 1000), "b");
+        assertEquals(Collections.singletonList("a/pom.xml"), scan());
+    }
+
+    @Test
+    public void directoryModifiedCloseToScanIsListedAgain() throws Exception {
+        createFiles("a/pom.xml");
+        touch(OLD, "");
+        // "a" was modified within the same timestamp tick the scan may have missed changes in
+        FileTime recent = Files.getLastModifiedTime(workspace.resolve("a"));
+        assertEquals(Collections.singletonList("a/pom.xml"), scan());
+
+        // change does not alter modification time of "a", it is still seen because "a" was not trusted
+        createFiles("a/build.gradle");
+        touch(recent, "a");
+        assertEquals(Arrays.asList("a/build.gradle", "a/pom.xml"), scan());
+
+        // the same kind of change in a trusted directory goes unnoticed
+        touch(OLD, "a");
+        assertEquals(Arrays.asList("a/build.gradle", "a/pom.xml"), scan());
+        createFiles("a/settings.gradle");
+        touch(OLD, "a");
+        assertEquals(Arrays.asList("a/build.gradle", "a/pom.xml"), scan());
+    }
+
+    private void createFiles(String... files) throws IOException {
+        for (String file : files) {
+            Path path = workspace.resolve(file);
+            Files.createDirectories(path.getParent());
+            Files.createFile(path);
+        }
+    }
+
+    private void touch(FileTime time, String... directories) throws IOException {
+        for (String directory : directories) {
+            Files.setLastModifiedTime(workspace.resolve(directory), time);
+        }
+    }
+
+    /**
+     * @return build files found by scan that uses and updates cached scan index, relative to workspace
+     */
+    private List<String> scan() throws IOException {
+        WorkspaceIndex index = ScanUtil.scanWorkspace(workspace, 2, cache);
+        Path root = index.getRoot();
+        return index.getDirectories().keySet().stream().
+                flatMap(directory -> index.getDirectories().get(directory).files.stream().
+                        map(file -> root.resolve(directory).resolve(file))).
+                map(file -> root.relativize(file).toString().replace('\\', '/')).
+                sorted().
+                collect(Collectors.toList());
+    }
+}